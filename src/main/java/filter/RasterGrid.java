@@ -0,0 +1,164 @@
+package filter;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+
+import java.util.Arrays;
+
+/**
+ * A grid over a polygon's envelope with every tile marked as inside, outside
+ * or crossed by the polygon's boundary. Points in inside and outside tiles are
+ * placed by arithmetic alone; only points in boundary tiles get the exact
+ * test, so the cost per point no longer grows with the vertex count.
+ *
+ * Tiles take a byte each and a grid holds at most MAX_TILES of them, so the
+ * tiles stay within 1MB whatever resolution is asked for, and classifying them
+ * needs no memory beyond the tiles themselves. The prepared polygon used for
+ * exact tests comes on top, linear in its vertex count.
+ */
+public class RasterGrid {
+
+    static final byte OUTSIDE = 0;
+    static final byte INSIDE = 1;
+    static final byte BOUNDARY = 2;
+    static final byte UNKNOWN = 3;
+    /** an edge passes through the tile; its neighbours become BOUNDARY too. */
+    static final byte SAMPLED = 4;
+
+    /** one byte per tile, so at most 1MB of tiles per grid. */
+    public static final int MAX_TILES = 1 << 20;
+
+    final GeometryFactory factory;
+    final PreparedGeometry prepared;
+    final Envelope envelope;
+    final int cols;
+    final int rows;
+    final double tileWidth;
+    final double tileHeight;
+    final byte[] tiles;
+
+    /**
+     * @param resolution the number of tiles along the longer side of the
+     *                   envelope, reduced if the grid would exceed MAX_TILES.
+     */
+    public RasterGrid(Geometry polygon, int resolution) {
+        this.factory = polygon.getFactory();
+        this.prepared = PreparedGeometryFactory.prepare(polygon);
+        this.envelope = polygon.getEnvelopeInternal();
+        double size = Math.max(envelope.getWidth(), envelope.getHeight()) / Math.max(1, resolution);
+        long cols = size > 0 ? Math.max(1, (long) Math.ceil(envelope.getWidth() / size)) : 1;
+        long rows = size > 0 ? Math.max(1, (long) Math.ceil(envelope.getHeight() / size)) : 1;
+        if (cols * rows > MAX_TILES) {
+            double shrink = Math.sqrt((double) MAX_TILES / (cols * rows));
+            cols = Math.max(1, (long) (cols * shrink));
+            rows = Math.max(1, (long) (rows * shrink));
+            // a side clamped to 1 keeps the other from shrinking enough.
+            cols = Math.max(1, Math.min(cols, MAX_TILES / rows));
+            rows = Math.min(rows, MAX_TILES / cols);
+        }
+        this.cols = (int) cols;
+        this.rows = (int) rows;
+        this.tileWidth = envelope.getWidth() / cols;
+        this.tileHeight = envelope.getHeight() / rows;
+        this.tiles = new byte[this.cols * this.rows];
+        classify(polygon);
+    }
+
+    int col(double x) {
+        return tileWidth > 0 ? Math.max(0, Math.min(cols - 1, (int) ((x - envelope.getMinX()) / tileWidth))) : 0;
+    }
+
+    int row(double y) {
+        return tileHeight > 0 ? Math.max(0, Math.min(rows - 1, (int) ((y - envelope.getMinY()) / tileHeight))) : 0;
+    }
+
+    void classify(Geometry polygon) {
+        Arrays.fill(tiles, UNKNOWN);
+        if (polygon.getDimension() < 2 || tileWidth == 0 || tileHeight == 0) {
+            Arrays.fill(tiles, BOUNDARY);
+            return;
+        }
+
+        // sample every edge at half-tile steps. a tile the edge only clips
+        // between samples is a neighbour of a sampled tile, so growing the
+        // sampled tiles by one catches it.
+        Geometry boundary = polygon.getBoundary();
+        for (int i = 0; i < boundary.getNumGeometries(); i++) {
+            CoordinateSequence ring = ((LineString) boundary.getGeometryN(i)).getCoordinateSequence();
+            for (int j = 1; j < ring.size(); j++) {
+                double x0 = ring.getX(j - 1);
+                double y0 = ring.getY(j - 1);
+                double dx = ring.getX(j) - x0;
+                double dy = ring.getY(j) - y0;
+                int steps = 1 + (int) Math.ceil(2 * Math.max(Math.abs(dx) / tileWidth, Math.abs(dy) / tileHeight));
+                for (int k = 0; k <= steps; k++) {
+                    tiles[row(y0 + dy * k / steps) * cols + col(x0 + dx * k / steps)] = SAMPLED;
+                }
+            }
+        }
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                if (tiles[row * cols + col] != SAMPLED) {
+                    continue;
+                }
+                for (int r = Math.max(0, row - 1); r <= Math.min(rows - 1, row + 1); r++) {
+                    for (int c = Math.max(0, col - 1); c <= Math.min(cols - 1, col + 1); c++) {
+                        if (tiles[r * cols + c] != SAMPLED) {
+                            tiles[r * cols + c] = BOUNDARY;
+                        }
+                    }
+                }
+                tiles[row * cols + col] = BOUNDARY;
+            }
+        }
+
+        // no edge crosses between side-by-side tiles off the boundary, so each
+        // run of them along a row is wholly inside or outside, as is a run
+        // touching a classified tile in the row below. only runs touching none
+        // test their first centre.
+        for (int row = 0; row < rows; row++) {
+            int col = 0;
+            while (col < cols) {
+                if (tiles[row * cols + col] != UNKNOWN) {
+                    col++;
+                    continue;
+                }
+                int end = col;
+                while (end < cols && tiles[row * cols + end] == UNKNOWN) {
+                    end++;
+                }
+                byte state = UNKNOWN;
+                for (int c = col; row > 0 && c < end && state == UNKNOWN; c++) {
+                    byte below = tiles[(row - 1) * cols + c];
+                    if (below == INSIDE || below == OUTSIDE) {
+                        state = below;
+                    }
+                }
+                if (state == UNKNOWN) {
+                    double x = envelope.getMinX() + (col + 0.5) * tileWidth;
+                    double y = envelope.getMinY() + (row + 0.5) * tileHeight;
+                    state = prepared.contains(factory.createPoint(new Coordinate(x, y))) ? INSIDE : OUTSIDE;
+                }
+                Arrays.fill(tiles, row * cols + col, row * cols + end, state);
+                col = end;
+            }
+        }
+    }
+
+    public boolean contains(double x, double y) {
+        if (!envelope.contains(x, y)) {
+            return false;
+        }
+        byte state = tiles[row(y) * cols + col(x)];
+        if (state == BOUNDARY) {
+            return prepared.contains(factory.createPoint(new Coordinate(x, y)));
+        }
+        return state == INSIDE;
+    }
+}
@@ -0,0 +1,165 @@
+package filter;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.exceptions.DeserializationException;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.FilterBase;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKBReader;
+import org.locationtech.jts.io.WKBWriter;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps the rows of the shapes table whose geometry satisfies the predicate
+ * against the query. The stored envelope is checked first, so rows far from
+ * the query are dropped without decoding their WKB.
+ *
+ * Serialized as one byte holding the predicate ordinal followed by the query
+ * as WKB.
+ */
+public class ShapeFilter extends FilterBase {
+
+    static final byte[] FAMILY = "a".getBytes();
+    static final byte[] WKB = "wkb".getBytes();
+    static final byte[] ENVELOPE = "env".getBytes();
+
+    static final Log LOG = LogFactory.getLog(ShapeFilter.class);
+
+    public enum Predicate {
+        /** the stored geometry meets the query. */
+        INTERSECTS,
+        /** the stored geometry lies within the query. */
+        WITHIN
+    }
+
+    static final GeometryFactory sfactory = new GeometryFactory();
+    Geometry query = null;
+    Predicate predicate = Predicate.INTERSECTS;
+    PreparedGeometry prepared = null;
+    Envelope window = null;
+    boolean exclude = false;
+
+    public ShapeFilter() {}
+
+    public ShapeFilter(Geometry query, Predicate predicate) {
+        this.query = query;
+        this.predicate = predicate;
+        this.window = query.getEnvelopeInternal();
+    }
+
+    /** the envelope column value, minLon, minLat, maxLon, maxLat as doubles. */
+    public static byte[] envelope(Envelope envelope) {
+        return Bytes.add(
+                Bytes.add(Bytes.toBytes(envelope.getMinX()), Bytes.toBytes(envelope.getMinY())),
+                Bytes.add(Bytes.toBytes(envelope.getMaxX()), Bytes.toBytes(envelope.getMaxY())));
+    }
+
+    static Envelope envelope(Cell cell) {
+        byte[] value = cell.getValueArray();
+        int offset = cell.getValueOffset();
+        return new Envelope(
+                Bytes.toDouble(value, offset), Bytes.toDouble(value, offset + 2 * Bytes.SIZEOF_DOUBLE),
+                Bytes.toDouble(value, offset + Bytes.SIZEOF_DOUBLE), Bytes.toDouble(value, offset + 3 * Bytes.SIZEOF_DOUBLE));
+    }
+
+    boolean envelopeMatches(Envelope envelope) {
+        if (predicate == Predicate.WITHIN) {
+            return window.contains(envelope);
+        }
+        return window.intersects(envelope);
+    }
+
+    boolean geometryMatches(Geometry geometry) {
+        if (prepared == null) {
+            prepared = PreparedGeometryFactory.prepare(query);
+        }
+        if (predicate == Predicate.WITHIN) {
+            return prepared.contains(geometry);
+        }
+        return prepared.intersects(geometry);
+    }
+
+    @Override
+    public boolean hasFilterRow() {
+        return true;
+    }
+
+    @Override
+    public void filterRowCells(List<Cell> cells) throws IOException {
+        Cell envelope = null;
+        Cell wkb = null;
+        for (Cell cell: cells) {
+            if (CellUtil.matchingColumn(cell, FAMILY, ENVELOPE)) {
+                envelope = cell;
+            } else if (CellUtil.matchingColumn(cell, FAMILY, WKB)) {
+                wkb = cell;
+            }
+        }
+
+        if (envelope == null || wkb == null) {
+            LOG.debug("skipping row without a shape.");
+            this.exclude = true;
+            return;
+        }
+        if (!envelopeMatches(envelope(envelope))) {
+            this.exclude = true;
+            return;
+        }
+
+        Geometry geometry;
+        try {
+            geometry = new WKBReader(sfactory).read(CellUtil.cloneValue(wkb));
+        } catch (ParseException e) {
+            LOG.debug(Bytes.toString(CellUtil.cloneRow(wkb)) + " holds invalid WKB.", e);
+            this.exclude = true;
+            return;
+        }
+        if (!geometryMatches(geometry)) {
+            this.exclude = true;
+        }
+    }
+
+    @Override
+    public boolean filterRow() {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("filter applied. " + (this.exclude ? "rejecting" : "keeping"));
+        }
+        return this.exclude;
+    }
+
+    @Override
+    public void reset() {
+        this.exclude = false;
+    }
+
+    @Override
+    public byte[] toByteArray() throws IOException {
+        return Bytes.add(new byte[] { (byte) predicate.ordinal() }, new WKBWriter().write(query));
+    }
+
+    public static Filter parseFrom(final byte[] bytes) throws DeserializationException {
+        if (bytes == null || bytes.length < 2 || bytes[0] < 0 || bytes[0] >= Predicate.values().length) {
+            throw new DeserializationException("Not a serialized ShapeFilter");
+        }
+        Geometry geometry;
+        try {
+            geometry = new WKBReader(sfactory).read(Arrays.copyOfRange(bytes, 1, bytes.length));
+        } catch (ParseException e) {
+            throw new DeserializationException(e);
+        }
+        return new ShapeFilter(geometry, Predicate.values()[bytes[0]]);
+    }
+
+}
@@ -4,6 +4,7 @@ import com.google.protobuf.InvalidProtocolBufferException;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
 import org.apache.hadoop.hbase.exceptions.DeserializationException;
 import org.apache.hadoop.hbase.filter.Filter;
 import org.apache.hadoop.hbase.filter.FilterBase;
@@ -12,6 +13,8 @@ import org.apache.hadoop.hbase.util.Bytes;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
 import org.locationtech.jts.io.ParseException;
 import org.locationtech.jts.io.WKTReader;
 
@@ -31,6 +34,9 @@ public class WithinFilter extends FilterBase {
     final GeometryFactory factory = new GeometryFactory();
     static final GeometryFactory sfactory = new GeometryFactory();
     Geometry query = null;
+    int resolution = 0;
+    PreparedGeometry prepared = null;
+    RasterGrid grid = null;
     boolean exclude = false;
 
     public WithinFilter() {}
@@ -39,6 +45,29 @@ public class WithinFilter extends FilterBase {
         this.query = query;
     }
 
+    /**
+     * @param resolution tiles along the longer side of the query's envelope in
+     *                   the RasterGrid built on first use, or 0 to test every
+     *                   point exactly.
+     */
+    public WithinFilter(Geometry query, int resolution) {
+        this.query = query;
+        this.resolution = resolution;
+    }
+
+    boolean contains(double lon, double lat) {
+        if (resolution > 0) {
+            if (grid == null) {
+                grid = new RasterGrid(query, resolution);
+            }
+            return grid.contains(lon, lat);
+        }
+        if (prepared == null) {
+            prepared = PreparedGeometryFactory.prepare(query);
+        }
+        return prepared.contains(factory.createPoint(new Coordinate(lon, lat)));
+    }
+
     @Override
     public boolean hasFilterRow() {
         return true;
@@ -54,25 +83,24 @@ public class WithinFilter extends FilterBase {
             return;
         }
 
+        // the cell arrays are shared backing buffers; read only the slices
+        // their offsets and lengths describe.
         for (Cell cell: cells) {
-            byte[] qual = cell.getQualifierArray();
-            if (Bytes.equals(qual, X_COL)) {
-                lon = Double.parseDouble(new String(cell.getValueArray()));
+            if (CellUtil.matchingQualifier(cell, X_COL)) {
+                lon = Double.parseDouble(Bytes.toString(cell.getValueArray(), cell.getValueOffset(), cell.getValueLength()));
             }
-            if (Bytes.equals(qual, Y_COL)) {
-                lat = Double.parseDouble(new String(cell.getValueArray()));
+            if (CellUtil.matchingQualifier(cell, Y_COL)) {
+                lat = Double.parseDouble(Bytes.toString(cell.getValueArray(), cell.getValueOffset(), cell.getValueLength()));
             }
         }
 
         if (Double.isNaN(lat) || Double.isNaN(lon)) {
-            LOG.debug(new String(cells.get(0).getRowArray()) + " is not a point.");
+            LOG.debug(Bytes.toString(CellUtil.cloneRow(cells.get(0))) + " is not a point.");
             this.exclude = true;
             return;
         }
 
-        Coordinate coordinate = new Coordinate(lon, lat);
-        Geometry point = factory.createPoint(coordinate);
-        if (!query.contains(point)) {
+        if (!contains(lon, lat)) {
             this.exclude = true;
         }
     }
@@ -95,7 +123,11 @@ public class WithinFilter extends FilterBase {
         WithinFilterProtos.WithinFilter.Builder builder = WithinFilterProtos.WithinFilter.newBuilder();
         if (query!=null) {
             builder.setQuery(ByteStringer.wrap(Bytes.toBytes(query.toText())));
-        }        return builder.build().toByteArray();
+        }
+        if (resolution > 0) {
+            builder.setResolution(resolution);
+        }
+        return builder.build().toByteArray();
     }
 
     public static Filter parseFrom(final byte[] pbBytes) throws DeserializationException {
@@ -109,7 +141,7 @@ public class WithinFilter extends FilterBase {
         } catch (InvalidProtocolBufferException | ParseException e) {
             throw new DeserializationException(e);
         }
-        return new WithinFilter(geometry);
+        return new WithinFilter(geometry, proto.getResolution());
     }
 
 }
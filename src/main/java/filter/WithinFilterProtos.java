@@ -20,6 +20,16 @@ public final class WithinFilterProtos {
      * <code>required bytes query = 1;</code>
      */
     com.google.protobuf.ByteString getQuery();
+
+    // optional int32 resolution = 2;
+    /**
+     * <code>optional int32 resolution = 2;</code>
+     */
+    boolean hasResolution();
+    /**
+     * <code>optional int32 resolution = 2;</code>
+     */
+    int getResolution();
   }
   /**
    * Protobuf type {@code WithinFilter}
@@ -77,6 +87,11 @@ public final class WithinFilterProtos {
               query_ = input.readBytes();
               break;
             }
+            case 16: {
+              bitField0_ |= 0x00000002;
+              resolution_ = input.readInt32();
+              break;
+            }
           }
         }
       } catch (com.google.protobuf.InvalidProtocolBufferException e) {
@@ -133,8 +148,25 @@ public final class WithinFilterProtos {
       return query_;
     }
 
+    // optional int32 resolution = 2;
+    public static final int RESOLUTION_FIELD_NUMBER = 2;
+    private int resolution_;
+    /**
+     * <code>optional int32 resolution = 2;</code>
+     */
+    public boolean hasResolution() {
+      return ((bitField0_ & 0x00000002) == 0x00000002);
+    }
+    /**
+     * <code>optional int32 resolution = 2;</code>
+     */
+    public int getResolution() {
+      return resolution_;
+    }
+
     private void initFields() {
       query_ = com.google.protobuf.ByteString.EMPTY;
+      resolution_ = 0;
     }
     private byte memoizedIsInitialized = -1;
     public final boolean isInitialized() {
@@ -155,6 +187,9 @@ public final class WithinFilterProtos {
       if (((bitField0_ & 0x00000001) == 0x00000001)) {
         output.writeBytes(1, query_);
       }
+      if (((bitField0_ & 0x00000002) == 0x00000002)) {
+        output.writeInt32(2, resolution_);
+      }
       getUnknownFields().writeTo(output);
     }
 
@@ -168,6 +203,10 @@ public final class WithinFilterProtos {
         size += com.google.protobuf.CodedOutputStream
           .computeBytesSize(1, query_);
       }
+      if (((bitField0_ & 0x00000002) == 0x00000002)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeInt32Size(2, resolution_);
+      }
       size += getUnknownFields().getSerializedSize();
       memoizedSerializedSize = size;
       return size;
@@ -196,6 +235,11 @@ public final class WithinFilterProtos {
         result = result && getQuery()
             .equals(other.getQuery());
       }
+      result = result && (hasResolution() == other.hasResolution());
+      if (hasResolution()) {
+        result = result && (getResolution()
+            == other.getResolution());
+      }
       result = result &&
           getUnknownFields().equals(other.getUnknownFields());
       return result;
@@ -213,6 +257,10 @@ public final class WithinFilterProtos {
         hash = (37 * hash) + QUERY_FIELD_NUMBER;
         hash = (53 * hash) + getQuery().hashCode();
       }
+      if (hasResolution()) {
+        hash = (37 * hash) + RESOLUTION_FIELD_NUMBER;
+        hash = (53 * hash) + getResolution();
+      }
       hash = (29 * hash) + getUnknownFields().hashCode();
       memoizedHashCode = hash;
       return hash;
@@ -324,6 +372,8 @@ public final class WithinFilterProtos {
         super.clear();
         query_ = com.google.protobuf.ByteString.EMPTY;
         bitField0_ = (bitField0_ & ~0x00000001);
+        resolution_ = 0;
+        bitField0_ = (bitField0_ & ~0x00000002);
         return this;
       }
 
@@ -356,6 +406,10 @@ public final class WithinFilterProtos {
           to_bitField0_ |= 0x00000001;
         }
         result.query_ = query_;
+        if (((from_bitField0_ & 0x00000002) == 0x00000002)) {
+          to_bitField0_ |= 0x00000002;
+        }
+        result.resolution_ = resolution_;
         result.bitField0_ = to_bitField0_;
         onBuilt();
         return result;
@@ -375,6 +429,9 @@ public final class WithinFilterProtos {
         if (other.hasQuery()) {
           setQuery(other.getQuery());
         }
+        if (other.hasResolution()) {
+          setResolution(other.getResolution());
+        }
         this.mergeUnknownFields(other.getUnknownFields());
         return this;
       }
@@ -442,6 +499,39 @@ public final class WithinFilterProtos {
         return this;
       }
 
+      // optional int32 resolution = 2;
+      private int resolution_ ;
+      /**
+       * <code>optional int32 resolution = 2;</code>
+       */
+      public boolean hasResolution() {
+        return ((bitField0_ & 0x00000002) == 0x00000002);
+      }
+      /**
+       * <code>optional int32 resolution = 2;</code>
+       */
+      public int getResolution() {
+        return resolution_;
+      }
+      /**
+       * <code>optional int32 resolution = 2;</code>
+       */
+      public Builder setResolution(int value) {
+        bitField0_ |= 0x00000002;
+        resolution_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional int32 resolution = 2;</code>
+       */
+      public Builder clearResolution() {
+        bitField0_ = (bitField0_ & ~0x00000002);
+        resolution_ = 0;
+        onChanged();
+        return this;
+      }
+
       // @@protoc_insertion_point(builder_scope:WithinFilter)
     }
 
@@ -467,9 +557,9 @@ public final class WithinFilterProtos {
       descriptor;
   static {
     String[] descriptorData = {
-      "\n\030WithinFilterProtos.proto\"\035\n\014WithinFilt" +
-      "er\022\r\n\005query\030\001 \002(\014B$\n\006filterB\022WithinFilte" +
-      "rProtosH\001\210\001\001\240\001\001"
+      "\n\030WithinFilterProtos.proto\"1\n\014WithinFilt" +
+      "er\022\r\n\005query\030\001 \002(\014\022\022\n\nresolution\030\002 \001(\005B$\n" +
+      "\006filterB\022WithinFilterProtosH\001\210\001\001\240\001\001"
     };
     com.google.protobuf.Descriptors.FileDescriptor.InternalDescriptorAssigner assigner =
       new com.google.protobuf.Descriptors.FileDescriptor.InternalDescriptorAssigner() {
@@ -481,7 +571,7 @@ public final class WithinFilterProtos {
           internal_static_WithinFilter_fieldAccessorTable = new
             com.google.protobuf.GeneratedMessage.FieldAccessorTable(
               internal_static_WithinFilter_descriptor,
-              new String[] { "Query", });
+              new String[] { "Query", "Resolution", });
           return null;
         }
       };
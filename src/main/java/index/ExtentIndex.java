@@ -0,0 +1,93 @@
+package index;
+
+import org.locationtech.jts.geom.Envelope;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Multi-level geohash keys for geometries with extent, after XZ-ordering. A
+ * geometry is filed under the cell holding the south-west corner of its
+ * envelope at the finest level whose cells are at least as wide and tall as
+ * the envelope, so the geometry lies within that cell enlarged by one cell to
+ * the east and north. Rowkeys are the cell, SEPARATOR and the geometry id;
+ * geometries too large for any cell are filed under the empty cell.
+ *
+ * A query window then finds every candidate by scanning, at each level up to
+ * a query level, the exact "cell|" rows of the cells whose enlarged extent
+ * meets the window, and at the query level the whole prefix of those cells,
+ * which takes in every finer level at once.
+ */
+public class ExtentIndex {
+
+    public static final char SEPARATOR = '|';
+    public static final int MAX_LEVEL = 10;
+    public static final int MAX_CELLS = 64;
+
+    final KeyEncoder encoder = new GeoHashEncoder();
+
+    /** the finest level whose cells can hold the envelope. */
+    public int level(Envelope envelope) {
+        for (int level = MAX_LEVEL; level > 0; level--) {
+            double[] bounds = encoder.bounds(encoder.encode(envelope.getMinX(), envelope.getMinY(), level));
+            if (bounds[2] - bounds[0] >= envelope.getWidth() && bounds[3] - bounds[1] >= envelope.getHeight()) {
+                return level;
+            }
+        }
+        return 0;
+    }
+
+    public String cell(Envelope envelope) {
+        int level = level(envelope);
+        return level == 0 ? "" : encoder.encode(envelope.getMinX(), envelope.getMinY(), level);
+    }
+
+    public String rowkey(Envelope envelope, String id) {
+        return cell(envelope) + SEPARATOR + id;
+    }
+
+    /**
+     * Enumerates the cells at the given level whose enlarged extent meets the
+     * window, that is the cells meeting the window grown by one cell to the
+     * west and south. Returns null once there are more than limit.
+     */
+    List<String> cells(int level, Envelope window, int limit) {
+        if (level == 0) {
+            return Collections.singletonList("");
+        }
+        double[] sw = encoder.bounds(encoder.encode(window.getMinX(), window.getMinY(), level));
+        return encoder.cells(level, window.getMinX() - (sw[2] - sw[0]), window.getMinY() - (sw[3] - sw[1]),
+                window.getMaxX(), window.getMaxY(), limit);
+    }
+
+    /**
+     * The finest level at which the window needs at most MAX_CELLS cells.
+     * Level 1 has 32 cells, so there always is one.
+     */
+    public int queryLevel(Envelope window) {
+        for (int level = MAX_LEVEL; level > 1; level--) {
+            if (cells(level, window, MAX_CELLS) != null) {
+                return level;
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Returns the key ranges to scan for geometries whose envelope may meet
+     * the window: one exact "cell|" range per cell at the levels coarser than
+     * the query level, and merged prefix ranges for the query level cells.
+     */
+    public List<KeyRange> ranges(Envelope window) {
+        int queryLevel = queryLevel(window);
+        List<KeyRange> ret = new ArrayList<>();
+        for (int level = 0; level < queryLevel; level++) {
+            for (String cell: cells(level, window, Integer.MAX_VALUE)) {
+                ret.add(new KeyRange(Collections.singletonList(cell + SEPARATOR)));
+            }
+        }
+        ret.addAll(encoder.ranges(cells(queryLevel, window, Integer.MAX_VALUE)));
+        return ret;
+    }
+}
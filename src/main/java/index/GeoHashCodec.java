@@ -0,0 +1,163 @@
+package index;
+
+/**
+ * Geohash arithmetic on primitive longs. A hash of n characters is held
+ * right-aligned in the low 5n bits, longitude first, exactly as ch.hsr's
+ * GeoHash interleaves them, so encodings, bounds and neighbours match that
+ * library bit for bit without allocating GeoHash, BoundingBox or WGS84Point
+ * objects.
+ */
+public final class GeoHashCodec {
+
+    public static final int MAX_CHARS = 12;
+
+    private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+    private static final int[] DECODE = new int['z' + 1];
+
+    static {
+        java.util.Arrays.fill(DECODE, -1);
+        for (int i = 0; i < BASE32.length; i++) {
+            DECODE[BASE32[i]] = i;
+        }
+    }
+
+    /** longitude and latitude steps to the neighbours in GeoHash.getAdjacent order. */
+    private static final int[][] ADJACENT = {
+            { 0, 1 }, { 1, 1 }, { 1, 0 }, { 1, -1 }, { 0, -1 }, { -1, -1 }, { -1, 0 }, { -1, 1 }
+    };
+
+    private GeoHashCodec() {}
+
+    public static long encode(double lon, double lat, int chars) {
+        if (Math.abs(lat) > 90 || Math.abs(lon) > 180) {
+            throw new IllegalArgumentException(String.format("The supplied coordinates (%s,%s) are out of range.", lat, lon));
+        }
+        if (chars < 0 || chars > MAX_CHARS) {
+            throw new IllegalArgumentException("A geohash can only be " + MAX_CHARS + " character long.");
+        }
+        double minLon = -180;
+        double maxLon = 180;
+        double minLat = -90;
+        double maxLat = 90;
+        long hash = 0;
+        for (int bit = 0; bit < chars * 5; bit++) {
+            hash <<= 1;
+            if ((bit & 1) == 0) {
+                double mid = (minLon + maxLon) / 2;
+                if (lon >= mid) {
+                    hash |= 1;
+                    minLon = mid;
+                } else {
+                    maxLon = mid;
+                }
+            } else {
+                double mid = (minLat + maxLat) / 2;
+                if (lat >= mid) {
+                    hash |= 1;
+                    minLat = mid;
+                } else {
+                    maxLat = mid;
+                }
+            }
+        }
+        return hash;
+    }
+
+    public static long decode(CharSequence base32) {
+        long hash = 0;
+        for (int i = 0; i < base32.length(); i++) {
+            char c = base32.charAt(i);
+            int digit = c < DECODE.length ? DECODE[c] : -1;
+            if (digit < 0) {
+                throw new IllegalArgumentException("Not a geohash: " + base32);
+            }
+            hash = (hash << 5) | digit;
+        }
+        return hash;
+    }
+
+    public static String toBase32(long hash, int chars) {
+        char[] ret = new char[chars];
+        for (int i = chars - 1; i >= 0; i--) {
+            ret[i] = BASE32[(int) (hash & 31)];
+            hash >>>= 5;
+        }
+        return new String(ret);
+    }
+
+    /**
+     * Writes the cell's minLon, minLat, maxLon, maxLat into bounds.
+     */
+    public static void bounds(long hash, int chars, double[] bounds) {
+        double minLon = -180;
+        double maxLon = 180;
+        double minLat = -90;
+        double maxLat = 90;
+        int bits = chars * 5;
+        for (int bit = 0; bit < bits; bit++) {
+            boolean on = ((hash >>> (bits - 1 - bit)) & 1) != 0;
+            if ((bit & 1) == 0) {
+                double mid = (minLon + maxLon) / 2;
+                if (on) {
+                    minLon = mid;
+                } else {
+                    maxLon = mid;
+                }
+            } else {
+                double mid = (minLat + maxLat) / 2;
+                if (on) {
+                    minLat = mid;
+                } else {
+                    maxLat = mid;
+                }
+            }
+        }
+        bounds[0] = minLon;
+        bounds[1] = minLat;
+        bounds[2] = maxLon;
+        bounds[3] = maxLat;
+    }
+
+    /**
+     * Returns the cell east and north steps away at the same precision.
+     * Both axes wrap around, as GeoHash's neighbours do.
+     */
+    public static long neighbour(long hash, int chars, int east, int north) {
+        int bits = chars * 5;
+        int lonBits = (bits + 1) / 2;
+        int latBits = bits / 2;
+        long lon = 0;
+        long lat = 0;
+        for (int bit = 0; bit < bits; bit++) {
+            long on = (hash >>> (bits - 1 - bit)) & 1;
+            if ((bit & 1) == 0) {
+                lon = (lon << 1) | on;
+            } else {
+                lat = (lat << 1) | on;
+            }
+        }
+        lon = (lon + east) & ((1L << lonBits) - 1);
+        lat = (lat + north) & ((1L << latBits) - 1);
+
+        long ret = 0;
+        for (int bit = 0; bit < bits; bit++) {
+            ret <<= 1;
+            if ((bit & 1) == 0) {
+                ret |= (lon >>> (lonBits - 1 - bit / 2)) & 1;
+            } else {
+                ret |= (lat >>> (latBits - 1 - bit / 2)) & 1;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Writes the 8 surrounding cells into adjacent, clockwise from the north
+     * as GeoHash.getAdjacent orders them.
+     */
+    public static void adjacent(long hash, int chars, long[] adjacent) {
+        for (int i = 0; i < ADJACENT.length; i++) {
+            adjacent[i] = neighbour(hash, chars, ADJACENT[i][0], ADJACENT[i][1]);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package index;
+
+/**
+ * Base32 geohash rowkeys, the Z-order layout Ingest has always written.
+ */
+public class GeoHashEncoder implements KeyEncoder {
+
+    public static final String NAME = "geohash";
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public int maxLevel() {
+        return 12;
+    }
+
+    @Override
+    public int fanout() {
+        return 32;
+    }
+
+    @Override
+    public int defaultLevel() {
+        return 7;
+    }
+
+    @Override
+    public String encode(double lon, double lat, int level) {
+        return GeoHashCodec.toBase32(GeoHashCodec.encode(lon, lat, level), level);
+    }
+
+    @Override
+    public long cell(double lon, double lat, int level) {
+        return GeoHashCodec.encode(lon, lat, level);
+    }
+
+    @Override
+    public String key(long cell, int level) {
+        return GeoHashCodec.toBase32(cell, level);
+    }
+
+    @Override
+    public String[] adjacent(String cell) {
+        long[] adjacent = new long[8];
+        GeoHashCodec.adjacent(GeoHashCodec.decode(cell), cell.length(), adjacent);
+        String[] ret = new String[adjacent.length];
+        for (int i = 0; i < adjacent.length; i++) {
+            ret[i] = GeoHashCodec.toBase32(adjacent[i], cell.length());
+        }
+        return ret;
+    }
+
+    @Override
+    public int adjacent(long cell, int level, long[] adjacent) {
+        GeoHashCodec.adjacent(cell, level, adjacent);
+        return 8;
+    }
+
+    @Override
+    public double[] bounds(String cell) {
+        double[] ret = new double[4];
+        GeoHashCodec.bounds(GeoHashCodec.decode(cell), cell.length(), ret);
+        return ret;
+    }
+
+    @Override
+    public void bounds(long cell, int level, double[] bounds) {
+        GeoHashCodec.bounds(cell, level, bounds);
+    }
+
+    @Override
+    public String next(String cell) {
+        long next = GeoHashCodec.decode(cell) + 1;
+        return next >>> (5 * cell.length()) == 0 ? GeoHashCodec.toBase32(next, cell.length()) : null;
+    }
+}
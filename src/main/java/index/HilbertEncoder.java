@@ -0,0 +1,172 @@
+package index;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hilbert curve rowkeys over a 2^30 x 2^30 lon/lat grid, written as 15 hex
+ * digits. Each digit is two curve orders, so level l cells form a 4^l x 4^l
+ * grid. Unlike Z-order, consecutive keys are always adjacent cells, which
+ * keeps covers and neighbourhoods in fewer key ranges.
+ */
+public class HilbertEncoder implements KeyEncoder {
+
+    public static final String NAME = "hilbert";
+
+    static final int ORDER = 30;
+    static final int LEVELS = ORDER / 2;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public int maxLevel() {
+        return LEVELS;
+    }
+
+    @Override
+    public int fanout() {
+        return 16;
+    }
+
+    @Override
+    public int defaultLevel() {
+        return 9;
+    }
+
+    @Override
+    public String encode(double lon, double lat, int level) {
+        return toHex(cell(lon, lat, level), level);
+    }
+
+    @Override
+    public long cell(double lon, double lat, int level) {
+        // as for geohashes, level 0 is the whole world and keys are empty.
+        if (level < 0 || level > LEVELS) {
+            throw new IllegalArgumentException("A hilbert key can only be " + LEVELS + " digits long.");
+        }
+        long side = 1L << ORDER;
+        long x = Math.min(side - 1, Math.max(0, (long) Math.floor((lon + 180) / 360 * side)));
+        long y = Math.min(side - 1, Math.max(0, (long) Math.floor((lat + 90) / 180 * side)));
+        return index(ORDER, x, y) >>> (4 * (LEVELS - level));
+    }
+
+    @Override
+    public String key(long cell, int level) {
+        return toHex(cell, level);
+    }
+
+    @Override
+    public String[] adjacent(String cell) {
+        long[] adjacent = new long[8];
+        int count = adjacent(Long.parseLong(cell, 16), cell.length(), adjacent);
+        String[] ret = new String[count];
+        for (int i = 0; i < count; i++) {
+            ret[i] = toHex(adjacent[i], cell.length());
+        }
+        return ret;
+    }
+
+    @Override
+    public int adjacent(long cell, int level, long[] adjacent) {
+        int order = level * 2;
+        long side = 1L << order;
+        long xy = point(order, cell);
+        int count = 0;
+        for (int dy = 1; dy >= -1; dy--) {
+            for (int dx = -1; dx <= 1; dx++) {
+                long y = (xy & 0xffffffffL) + dy;
+                if ((dx == 0 && dy == 0) || y < 0 || y >= side) {
+                    continue;
+                }
+                long x = ((xy >>> 32) + dx + side) % side;
+                adjacent[count++] = index(order, x, y);
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public double[] bounds(String cell) {
+        double[] ret = new double[4];
+        bounds(cell.isEmpty() ? 0 : Long.parseLong(cell, 16), cell.length(), ret);
+        return ret;
+    }
+
+    @Override
+    public void bounds(long cell, int level, double[] bounds) {
+        int order = level * 2;
+        double width = 360.0 / (1L << order);
+        double height = 180.0 / (1L << order);
+        long xy = point(order, cell);
+        bounds[0] = (xy >>> 32) * width - 180;
+        bounds[1] = (xy & 0xffffffffL) * height - 90;
+        bounds[2] = bounds[0] + width;
+        bounds[3] = bounds[1] + height;
+    }
+
+    @Override
+    public String next(String cell) {
+        long d = Long.parseLong(cell, 16) + 1;
+        if (d >= 1L << (4 * cell.length())) {
+            return null;
+        }
+        return toHex(d, cell.length());
+    }
+
+    static String toHex(long d, int digits) {
+        char[] chars = new char[digits];
+        for (int i = digits - 1; i >= 0; i--) {
+            chars[i] = HEX[(int) (d & 0xf)];
+            d >>>= 4;
+        }
+        return new String(chars);
+    }
+
+    /** position of cell x, y along the curve of the given order. */
+    static long index(int order, long x, long y) {
+        long d = 0;
+        for (long s = 1L << (order - 1); s > 0; s >>= 1) {
+            long rx = (x & s) > 0 ? 1 : 0;
+            long ry = (y & s) > 0 ? 1 : 0;
+            d += s * s * ((3 * rx) ^ ry);
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = s - 1 - x;
+                    y = s - 1 - y;
+                }
+                long t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return d;
+    }
+
+    /** the cell x, y at position d along the curve of the given order, as x << 32 | y. */
+    static long point(int order, long d) {
+        long x = 0;
+        long y = 0;
+        for (long s = 1; s < 1L << order; s <<= 1) {
+            long rx = 1 & (d / 2);
+            long ry = 1 & (d ^ rx);
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = s - 1 - x;
+                    y = s - 1 - y;
+                }
+                long t = x;
+                x = y;
+                y = t;
+            }
+            x += s * rx;
+            y += s * ry;
+            d /= 4;
+        }
+        return x << 32 | y;
+    }
+}
@@ -0,0 +1,107 @@
+package index;
+
+import java.util.*;
+
+/**
+ * Maps positions to rowkeys along a space-filling curve. Rowkeys are strings in
+ * which every prefix names a cell of the curve, so the cell at level l holding
+ * a point is the first l characters of its rowkey and a prefix scan returns the
+ * points inside that cell.
+ */
+public interface KeyEncoder {
+
+    String name();
+
+    /** length of a full rowkey. */
+    int maxLevel();
+
+    /** the number of cells one level down inside each cell. */
+    int fanout();
+
+    /** the level KNN searches start at, about 150m cells. */
+    int defaultLevel();
+
+    /** the cell at the given level containing the point. */
+    String encode(double lon, double lat, int level);
+
+    /** the cells bordering the cell at its level, at most 8. */
+    String[] adjacent(String cell);
+
+    /** the cell's extent as minLon, minLat, maxLon, maxLat. */
+    double[] bounds(String cell);
+
+    /**
+     * The cell at the given level containing the point, as the number its
+     * rowkey spells. The long forms below let hot loops walk cells with
+     * reused buffers instead of building strings and arrays per cell.
+     */
+    long cell(double lon, double lat, int level);
+
+    /** the rowkey of a numbered cell. */
+    String key(long cell, int level);
+
+    /** writes the cells bordering the cell into adjacent and returns how many, at most 8. */
+    int adjacent(long cell, int level, long[] adjacent);
+
+    /** writes the cell's extent into bounds as minLon, minLat, maxLon, maxLat. */
+    void bounds(long cell, int level, double[] bounds);
+
+    /** the cell following this one along the curve, or null for the last cell. */
+    String next(String cell);
+
+    /**
+     * Groups cells of one level into the fewest key ranges, merging cells
+     * that follow each other along the curve.
+     */
+    default List<KeyRange> ranges(Collection<String> cells) {
+        List<String> sorted = new ArrayList<>(new TreeSet<>(cells));
+        List<KeyRange> ret = new ArrayList<>();
+        List<String> run = new ArrayList<>();
+        for (String cell: sorted) {
+            if (!run.isEmpty() && !cell.equals(next(run.get(run.size() - 1)))) {
+                ret.add(new KeyRange(run));
+                run = new ArrayList<>();
+            }
+            run.add(cell);
+        }
+        if (!run.isEmpty()) {
+            ret.add(new KeyRange(run));
+        }
+        return ret;
+    }
+
+    /**
+     * Enumerates the cells of a level that meet the box, in key order.
+     * Returns null once there are more than limit.
+     */
+    default List<String> cells(int level, double minLon, double minLat, double maxLon, double maxLat, int limit) {
+        double[] sw = bounds(encode(Math.max(-180, minLon), Math.max(-90, minLat), level));
+        double width = sw[2] - sw[0];
+        double height = sw[3] - sw[1];
+        Set<String> ret = new TreeSet<>();
+        // step between cell centres, starting at the south-west cell.
+        for (double lat = (sw[1] + sw[3]) / 2; lat - height / 2 <= Math.min(90, maxLat); lat += height) {
+            for (double lon = (sw[0] + sw[2]) / 2; lon - width / 2 <= Math.min(180, maxLon); lon += width) {
+                ret.add(encode(Math.min(lon, 180), Math.min(lat, 90), level));
+                if (ret.size() > limit) {
+                    return null;
+                }
+            }
+        }
+        return new ArrayList<>(ret);
+    }
+
+    /** whether the extent, as bounds() writes it, covers the box. */
+    static boolean covers(double[] bounds, double minLon, double minLat, double maxLon, double maxLat) {
+        return bounds[0] <= minLon && bounds[1] <= minLat && bounds[2] >= maxLon && bounds[3] >= maxLat;
+    }
+
+    static KeyEncoder forName(String name) {
+        if (GeoHashEncoder.NAME.equals(name)) {
+            return new GeoHashEncoder();
+        } else if (HilbertEncoder.NAME.equals(name)) {
+            return new HilbertEncoder();
+        }
+        throw new IllegalArgumentException("Unknown key encoder: " + name);
+    }
+}
@@ -0,0 +1,32 @@
+package index;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A run of consecutive cells of one level, scanned as the rowkey range
+ * [start, stop).
+ */
+public class KeyRange {
+
+    public final List<String> cells;
+    public final byte[] start;
+    public final byte[] stop;
+
+    public KeyRange(List<String> cells) {
+        this.cells = Collections.unmodifiableList(cells);
+        this.start = cells.get(0).getBytes();
+        this.stop = cells.get(cells.size() - 1).getBytes();
+        // every key under the last cell sorts before the cell with its final
+        // byte incremented. rowkey alphabets are ASCII so this cannot overflow.
+        this.stop[this.stop.length - 1]++;
+    }
+
+    @Override
+    public String toString() {
+        if (cells.size() == 1) {
+            return cells.get(0);
+        }
+        return cells.get(0) + ".." + cells.get(cells.size() - 1);
+    }
+}
@@ -9,22 +9,99 @@ public class DistanceComparator implements Comparator<QueryMatch> {
 
     static final Logger LOG = Logger.getLogger(DistanceComparator.class);
 
+    /** mean earth radius in metres. */
+    public static final double EARTH_RADIUS = 6371008.8;
+
     Point2D origin;
+    final boolean geodesic;
+    final double originLonRad, originLatRad, cosOriginLat;
 
     public DistanceComparator(double lon, double lat) {
+        this(lon, lat, false);
+    }
+
+    /**
+     * @param geodesic when true distances are great-circle metres computed with
+     *                 the haversine formula, otherwise planar degrees.
+     */
+    public DistanceComparator(double lon, double lat, boolean geodesic) {
         this.origin = new Point2D.Double(lon, lat);
+        this.geodesic = geodesic;
+        this.originLonRad = Math.toRadians(lon);
+        this.originLatRad = Math.toRadians(lat);
+        this.cosOriginLat = Math.cos(originLatRad);
     }
 
     public double calculateDistance(QueryMatch o) {
-        return origin.distance(o.lon, o.lat);
+        return distance(o.lon, o.lat);
+    }
+
+    public double distance(double lon, double lat) {
+        if (!geodesic) {
+            return origin.distance(lon, lat);
+        }
+        double latRad = Math.toRadians(lat);
+        double sinDLat = Math.sin((latRad - originLatRad) / 2);
+        double sinDLon = Math.sin((Math.toRadians(lon) - originLonRad) / 2);
+        double h = sinDLat * sinDLat + cosOriginLat * Math.cos(latRad) * sinDLon * sinDLon;
+        return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(h)));
+    }
+
+    /**
+     * Lower bound on the distance from the origin to any point of the box.
+     */
+    public double minDistance(double minLon, double minLat, double maxLon, double maxLat) {
+        double lon = origin.getX();
+        double lat = origin.getY();
+        if (!geodesic) {
+            return origin.distance(clamp(lon, minLon, maxLon), clamp(lat, minLat, maxLat));
+        }
+        if (lon >= minLon && lon <= maxLon) {
+            return distance(lon, clamp(lat, minLat, maxLat));
+        }
+        // outside the box's longitude span the nearest point lies on the nearer
+        // meridian edge, not necessarily at the origin's latitude.
+        double west = Math.abs(normalize(minLon - lon));
+        double east = Math.abs(normalize(lon - maxLon));
+        double edge = west < east ? minLon : maxLon;
+        double cosDLon = Math.cos(Math.toRadians(Math.min(west, east)));
+        if (cosDLon <= 0) {
+            return Math.min(distance(edge, minLat), distance(edge, maxLat));
+        }
+        double nearest = Math.toDegrees(Math.atan2(Math.tan(originLatRad), cosDLon));
+        return distance(edge, clamp(nearest, minLat, maxLat));
+    }
+
+    /**
+     * Upper bound on the distance from the origin to any point of the box.
+     * Exact for boxes narrower than 180 degrees of longitude.
+     */
+    public double maxDistance(double minLon, double minLat, double maxLon, double maxLat) {
+        return Math.max(
+                Math.max(distance(minLon, minLat), distance(minLon, maxLat)),
+                Math.max(distance(maxLon, minLat), distance(maxLon, maxLat)));
+    }
+
+    static double clamp(double value, double min, double max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    static double normalize(double degrees) {
+        double ret = degrees % 360;
+        if (ret > 180) {
+            ret -= 360;
+        } else if (ret < -180) {
+            ret += 360;
+        }
+        return ret;
     }
 
     public int compare(QueryMatch o1, QueryMatch o2) {
         if (Double.isNaN(o1.distance)) {
-            o1.distance = origin.distance(o1.lon, o1.lat);
+            o1.distance = calculateDistance(o1);
         }
         if (Double.isNaN(o2.distance)) {
-            o2.distance = origin.distance(o2.lon, o2.lat);
+            o2.distance = calculateDistance(o2);
         }
         if (o1.distance < 0 || o2.distance < 0) {
             LOG.warn("negative distance detected!");
@@ -0,0 +1,264 @@
+package service;
+
+import index.GeoHashEncoder;
+import index.KeyEncoder;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.*;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.FirstKeyOnlyFilter;
+import org.apache.hadoop.hbase.filter.KeyOnlyFilter;
+import org.apache.hadoop.hbase.filter.RandomRowFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Point counts per rowkey prefix at levels 1 through MAX_PRECISION, kept in a
+ * side table named after the point table with a '_counts' suffix. Each prefix
+ * is a row holding an 8-byte counter in a:n. Prefixes are those of the point
+ * table's own keys, so reading them back needs the encoder the table was
+ * loaded with. Counts are aggregated in process and written as batched
+ * increments, so a load touches each prefix row once.
+ *
+ * Loads count only rows that did not exist yet, so loading a file twice does
+ * not double the counts. Moves are applied as increments of -1 and +1.
+ */
+public class CountPyramid {
+
+    static final byte[] FAMILY = "a".getBytes();
+    static final byte[] COUNT = "n".getBytes();
+
+    static final int MAX_PRECISION = 8;
+    static final int MAX_CELLS = 4096;
+    static final int BATCH_SIZE = 1000;
+
+    private static final String usage =
+            "service.CountPyramid [-encoder geohash|hilbert] table precision minlon minlat maxlon maxlat\n" +
+            "  help - print this message and exit.\n" +
+            "  -encoder - the rowkey encoding the table was loaded with, geohash by default.\n" +
+            "  table - the point table whose '_counts' side table is read.\n" +
+            "  precision - level of the returned cells, 1 to 8.\n" +
+            "  minlon, minlat, maxlon, maxlat - the bounding box to report.";
+
+    final Connection connection;
+    final TableName table;
+    final TableName counts;
+    final ConcurrentHashMap<String, LongAdder> pending = new ConcurrentHashMap<>();
+
+    public CountPyramid(Connection connection, TableName table) {
+        this.connection = connection;
+        this.table = table;
+        this.counts = countsTable(table);
+    }
+
+    static TableName countsTable(TableName table) {
+        return TableName.valueOf(table.getNameAsString() + "_counts");
+    }
+
+    /** counts the point under every prefix of hash; safe to call concurrently. */
+    public void add(String hash) {
+        add(hash, 1);
+    }
+
+    /** adds delta to the count under every prefix of hash. */
+    public void add(String hash, long delta) {
+        add(pending, hash, delta);
+    }
+
+    static void add(Map<String, LongAdder> into, String hash, long delta) {
+        for (int precision = 1; precision <= MAX_PRECISION && precision <= hash.length(); precision++) {
+            into.computeIfAbsent(hash.substring(0, precision), k -> new LongAdder()).add(delta);
+        }
+    }
+
+    /**
+     * Sends the puts through the mutator and counts the rows among them that
+     * are not in the point table yet, skipping keyOffset leading characters of
+     * each rowkey (a time bucket). Batches are applied one at a time, with the
+     * mutator flushed before the existence check, so a row repeated within a
+     * load or across loads is counted once.
+     */
+    public synchronized void load(BufferedMutator mutator, List<Put> puts, int keyOffset) throws IOException {
+        if (puts.isEmpty()) {
+            return;
+        }
+        mutator.flush();
+        List<Get> gets = new ArrayList<>(puts.size());
+        for (Put put: puts) {
+            gets.add(new Get(put.getRow()));
+        }
+        boolean[] exists;
+        try (Table t = connection.getTable(table)) {
+            exists = t.exists(gets);
+        }
+        Set<String> counted = new HashSet<>(puts.size());
+        for (int i = 0; i < puts.size(); i++) {
+            String row = new String(puts.get(i).getRow());
+            if (!exists[i] && counted.add(row)) {
+                add(row.substring(keyOffset));
+            }
+        }
+        mutator.mutate(puts);
+    }
+
+    /** creates the side table when it does not exist. */
+    public void create() throws IOException {
+        try (Admin admin = connection.getAdmin()) {
+            if (!admin.tableExists(counts)) {
+                admin.createTable(TableDescriptorBuilder.newBuilder(counts)
+                        .setColumnFamily(ColumnFamilyDescriptorBuilder.of(FAMILY)).build());
+            }
+        }
+    }
+
+    /**
+     * Samples the point table's rowkeys, skipping keyOffset leading characters
+     * of each (a time bucket), and replaces the side table's contents with the
+     * counts scaled up by 1 / rate. Returns the number of rows read. The side
+     * table is unavailable while it is replaced, so this is for offline use.
+     */
+    public long rebuild(int keyOffset, float rate) throws IOException {
+        FilterList filters = new FilterList(new FirstKeyOnlyFilter(), new KeyOnlyFilter());
+        if (rate < 1) {
+            filters.addFilter(new RandomRowFilter(rate));
+        }
+        Scan scan = new Scan().setFilter(filters);
+        scan.setCaching(DensityStats.MAX_CACHING);
+        scan.setCacheBlocks(false);
+
+        Map<String, LongAdder> sampled = new HashMap<>();
+        long rows = 0;
+        try (Table t = connection.getTable(table); ResultScanner scanner = t.getScanner(scan)) {
+            for (Result result: scanner) {
+                add(sampled, new String(result.getRow()).substring(keyOffset), 1);
+                rows++;
+            }
+        }
+
+        try (Admin admin = connection.getAdmin()) {
+            if (admin.tableExists(counts)) {
+                admin.disableTable(counts);
+                admin.truncateTable(counts, true);
+            }
+        }
+        create();
+        write(sampled, true, 1 / rate);
+        return rows;
+    }
+
+    /**
+     * Writes the aggregated counts as increments and clears them. Returns the
+     * number of prefix rows touched.
+     */
+    public int flush() throws IOException {
+        return write(pending, false, 1);
+    }
+
+    int write(Map<String, LongAdder> aggregated, boolean overwrite, double scale) throws IOException {
+        int touched = 0;
+        List<Row> batch = new ArrayList<>(BATCH_SIZE);
+        try (Table table = connection.getTable(counts)) {
+            for (Iterator<Map.Entry<String, LongAdder>> iter = aggregated.entrySet().iterator(); iter.hasNext();) {
+                Map.Entry<String, LongAdder> entry = iter.next();
+                iter.remove();
+                byte[] row = entry.getKey().getBytes();
+                long count = Math.round(entry.getValue().sum() * scale);
+                if (overwrite) {
+                    batch.add(new Put(row).addColumn(FAMILY, COUNT, Bytes.toBytes(count)));
+                } else if (count != 0) {
+                    batch.add(new Increment(row).addColumn(FAMILY, COUNT, count));
+                }
+                if (batch.size() == BATCH_SIZE) {
+                    touched += apply(table, batch);
+                }
+            }
+            touched += apply(table, batch);
+        }
+        return touched;
+    }
+
+    static int apply(Table table, List<Row> batch) throws IOException {
+        int size = batch.size();
+        if (size == 0) {
+            return 0;
+        }
+        try {
+            table.batch(batch, new Object[size]);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing counts", e);
+        }
+        batch.clear();
+        return size;
+    }
+
+    /**
+     * Returns the point count of every cell of the encoder at the given level
+     * that meets the box, in key order. Cells without points are omitted.
+     * Reads one row per cell in a single batch, independent of the number of
+     * points.
+     *
+     * @param encoder the rowkey encoding the point table was loaded with.
+     */
+    public Map<String, Long> counts(KeyEncoder encoder, int precision, double minLon, double minLat,
+                                    double maxLon, double maxLat) throws IOException {
+        if (precision < 1 || precision > Math.min(MAX_PRECISION, encoder.maxLevel())) {
+            throw new IllegalArgumentException("Precision must be between 1 and " + MAX_PRECISION);
+        }
+        List<String> cells = encoder.cells(precision, minLon, minLat, maxLon, maxLat, MAX_CELLS);
+        if (cells == null) {
+            throw new IllegalArgumentException(String.format(
+                    "More than %s cells at precision %s, use a coarser precision.", MAX_CELLS, precision));
+        }
+        List<Get> gets = new ArrayList<>();
+        for (String cell: cells) {
+            gets.add(new Get(cell.getBytes()).addColumn(FAMILY, COUNT));
+        }
+        Map<String, Long> ret = new LinkedHashMap<>();
+        try (Table table = connection.getTable(counts)) {
+            for (Result result: table.get(gets)) {
+                if (!result.isEmpty()) {
+                    ret.put(new String(result.getRow()), Bytes.toLong(result.getValue(FAMILY, COUNT)));
+                }
+            }
+        }
+        return ret;
+    }
+
+    public static void main(String[] args) throws IOException {
+        KeyEncoder encoder = new GeoHashEncoder();
+        if (args.length > 1 && "-encoder".equals(args[0])) {
+            encoder = KeyEncoder.forName(args[1]);
+            args = Arrays.copyOfRange(args, 2, args.length);
+        }
+        if (args.length != 6) {
+            System.out.println(usage);
+            System.exit(0);
+        }
+
+        TableName table = TableName.valueOf(args[0]);
+        int precision = Integer.parseInt(args[1]);
+        double minLon = Double.parseDouble(args[2]);
+        double minLat = Double.parseDouble(args[3]);
+        double maxLon = Double.parseDouble(args[4]);
+        double maxLat = Double.parseDouble(args[5]);
+
+        Connection connection = ConnectionFactory.createConnection();
+        CountPyramid pyramid = new CountPyramid(connection, table);
+        long start = System.currentTimeMillis();
+        Map<String, Long> counts = pyramid.counts(encoder, precision, minLon, minLat, maxLon, maxLat);
+        long end = System.currentTimeMillis();
+
+        long total = 0;
+        for (Map.Entry<String, Long> entry: counts.entrySet()) {
+            System.out.println(entry.getKey() + "\t" + entry.getValue());
+            total += entry.getValue();
+        }
+        System.out.println(String.format("%s points in %s cells (%sms).", total, counts.size(), end - start));
+
+        connection.close();
+    }
+}
@@ -0,0 +1,200 @@
+package service;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import index.KeyEncoder;
+import index.KeyRange;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.*;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client-side cache of the per-prefix point counts kept by CountPyramid, used
+ * to pick the KNN starting precision and to size scanner caching. Counts come
+ * from Ingest -pyramid or from the rebuild sampler in main.
+ */
+public class DensityStats {
+
+    static final int DEFAULT_CACHING = 50;
+    static final int MAX_CACHING = 1000;
+    static final int CACHE_SIZE = 100000;
+    static final long EXPIRY_MINUTES = 10;
+
+    private static final String usage =
+            "service.DensityStats rebuild table [sample-rate]\n" +
+            "  help - print this message and exit.\n" +
+            "  table - the point table to sample, keyed by position alone.\n" +
+            "  sample-rate - fraction of rows to read, 1.0 by default. counts are\n" +
+            "                scaled up accordingly.\n" +
+            "\n" +
+            "replaces the contents of the 'table_counts' side table with counts\n" +
+            "sampled from the table. run periodically for tables not loaded with\n" +
+            "Ingest -pyramid.";
+
+    final Connection connection;
+    final TableName counts;
+    final LoadingCache<String, Long> cache;
+
+    public DensityStats(Connection connection, TableName table) {
+        this.connection = connection;
+        this.counts = CountPyramid.countsTable(table);
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(CACHE_SIZE)
+                .expireAfterWrite(EXPIRY_MINUTES, TimeUnit.MINUTES)
+                .build(new CacheLoader<String, Long>() {
+                    @Override
+                    public Long load(String prefix) throws Exception {
+                        return loadAll(Collections.singleton(prefix)).get(prefix);
+                    }
+
+                    @Override
+                    public Map<String, Long> loadAll(Iterable<? extends String> prefixes) throws Exception {
+                        return loadCounts(prefixes);
+                    }
+                });
+    }
+
+    /**
+     * Returns stats for the table, or null when it has no counts side table.
+     */
+    public static DensityStats forTable(Connection connection, TableName table) throws IOException {
+        try (Admin admin = connection.getAdmin()) {
+            if (!admin.tableExists(CountPyramid.countsTable(table))) {
+                return null;
+            }
+        }
+        return new DensityStats(connection, table);
+    }
+
+    Map<String, Long> loadCounts(Iterable<? extends String> prefixes) throws IOException {
+        List<Get> gets = new ArrayList<>();
+        Map<String, Long> ret = new HashMap<>();
+        for (String prefix: prefixes) {
+            gets.add(new Get(prefix.getBytes()).addColumn(CountPyramid.FAMILY, CountPyramid.COUNT));
+            ret.put(prefix, 0L);
+        }
+        try (Table table = connection.getTable(counts)) {
+            for (Result result: table.get(gets)) {
+                if (!result.isEmpty()) {
+                    ret.put(new String(result.getRow()), Bytes.toLong(result.getValue(CountPyramid.FAMILY, CountPyramid.COUNT)));
+                }
+            }
+        }
+        return ret;
+    }
+
+    Map<String, Long> counts(Collection<String> prefixes) throws IOException {
+        try {
+            return cache.getAll(prefixes);
+        } catch (ExecutionException e) {
+            throw new IOException("Unable to load counts from " + counts, e.getCause());
+        }
+    }
+
+    /**
+     * Returns the point count under the prefix. Prefixes finer than the
+     * pyramid are estimated from their deepest counted ancestor.
+     */
+    public long count(KeyEncoder encoder, String prefix) throws IOException {
+        return total(encoder, Collections.singleton(prefix));
+    }
+
+    /**
+     * Returns the total point count under the cells, reading the counted
+     * prefixes in one batch. Cells finer than the pyramid get an even share
+     * of their ancestor's count, split encoder.fanout() ways per level.
+     */
+    public long total(KeyEncoder encoder, Collection<String> cells) throws IOException {
+        Set<String> prefixes = new HashSet<>();
+        for (String cell: cells) {
+            prefixes.add(cell.substring(0, Math.min(cell.length(), CountPyramid.MAX_PRECISION)));
+        }
+        Map<String, Long> counts = counts(prefixes);
+        long total = 0;
+        for (String cell: cells) {
+            if (cell.length() <= CountPyramid.MAX_PRECISION) {
+                total += counts.get(cell);
+            } else {
+                double share = Math.pow(encoder.fanout(), cell.length() - CountPyramid.MAX_PRECISION);
+                total += (long) Math.ceil(counts.get(cell.substring(0, CountPyramid.MAX_PRECISION)) / share);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Returns the finest precision, at most maxPrecision, whose 3x3 cell
+     * neighbourhood around the point holds at least n points. Falls back to
+     * maxPrecision when there are no counts for the area.
+     */
+    public int startPrecision(KeyEncoder encoder, double lon, double lat, int n, int maxPrecision)
+            throws IOException {
+        int finest = Math.min(maxPrecision, CountPyramid.MAX_PRECISION);
+        Map<Integer, List<String>> neighbourhoods = new TreeMap<>(Collections.reverseOrder());
+        Set<String> prefixes = new HashSet<>();
+        for (int precision = finest; precision > 1; precision--) {
+            String target = encoder.encode(lon, lat, precision);
+            List<String> cells = new ArrayList<>(Arrays.asList(encoder.adjacent(target)));
+            cells.add(target);
+            neighbourhoods.put(precision, cells);
+            prefixes.addAll(cells);
+        }
+        if (neighbourhoods.isEmpty()) {
+            return maxPrecision;
+        }
+
+        Map<String, Long> counts = counts(prefixes);
+        long coarsest = 0;
+        for (Map.Entry<Integer, List<String>> entry: neighbourhoods.entrySet()) {
+            long total = 0;
+            for (String cell: entry.getValue()) {
+                total += counts.get(cell);
+            }
+            if (total >= n) {
+                return entry.getKey();
+            }
+            coarsest = total;
+        }
+        return coarsest == 0 ? maxPrecision : 2;
+    }
+
+    /**
+     * Returns scanner caching large enough to fetch the range's rows in a
+     * single RPC, bounded by MAX_CACHING.
+     */
+    public int caching(KeyEncoder encoder, KeyRange range) throws IOException {
+        return (int) Math.max(1, Math.min(MAX_CACHING, total(encoder, range.cells) + 1));
+    }
+
+    static int caching(DensityStats stats, KeyEncoder encoder, KeyRange range) throws IOException {
+        return stats == null ? DEFAULT_CACHING : stats.caching(encoder, range);
+    }
+
+    /**
+     * Samples the table's rowkeys and replaces its counts side table with the
+     * scaled per-prefix counts.
+     */
+    static void rebuild(Connection connection, TableName table, float rate) throws IOException {
+        CountPyramid pyramid = new CountPyramid(connection, table);
+        long rows = pyramid.rebuild(0, rate);
+        System.out.println(String.format("Sampled %s rows into %s.", rows, pyramid.counts));
+    }
+
+    public static void main(String[] args) throws IOException {
+        if ((args.length != 2 && args.length != 3) || !"rebuild".equals(args[0])) {
+            System.out.println(usage);
+            System.exit(0);
+        }
+
+        float rate = args.length == 3 ? Float.parseFloat(args[2]) : 1f;
+        Connection connection = ConnectionFactory.createConnection();
+        rebuild(connection, TableName.valueOf(args[1]), rate);
+        connection.close();
+    }
+}
@@ -0,0 +1,95 @@
+package service;
+
+import index.GeoHashEncoder;
+import index.HilbertEncoder;
+import index.KeyEncoder;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.*;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+
+import java.io.IOException;
+import java.util.List;
+
+public class EncoderBench {
+
+    static final byte[] FAMILY = "a".getBytes();
+    static final byte[][] COLUMNS = new byte[][] {
+            "lon".getBytes(), "lat".getBytes(), "id".getBytes()
+    };
+
+    private static final String usage =
+            "service.EncoderBench source.csv\n" +
+            "  help - print this message and exit.\n" +
+            "  source.csv - the points to load.\n" +
+            "\n" +
+            "loads the points into 'encoder_geohash' and 'encoder_hilbert', keyed by\n" +
+            "each encoder's finest cell, then runs the same KNN and within queries\n" +
+            "against both and reports the key ranges scanned and rows read.";
+
+    static TableName table(KeyEncoder encoder) {
+        return TableName.valueOf("encoder_" + encoder.name());
+    }
+
+    static void load(Connection connection, final KeyEncoder encoder, String path) throws IOException {
+        TableName table = table(encoder);
+        try (Admin admin = connection.getAdmin()) {
+            if (admin.tableExists(table)) {
+                admin.disableTable(table);
+                admin.deleteTable(table);
+            }
+        }
+        new Schema(connection).create(table, Schema.Profile.DEFAULT);
+        try (BufferedMutator mutator = connection.getBufferedMutator(table)) {
+            new MappedCsvReader(path).read(new MappedCsvReader.Handler() {
+                @Override
+                public void handle(MappedCsvReader.Record record) throws IOException {
+                    Put put = new Put(encoder.encode(record.lon, record.lat, encoder.maxLevel()).getBytes());
+                    for (int i = 0; i < Math.min(COLUMNS.length, record.fields); i++) {
+                        put.addColumn(FAMILY, COLUMNS[i], record.field(i));
+                    }
+                    mutator.mutate(put);
+                }
+            });
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.out.println(usage);
+            System.exit(0);
+        }
+
+        List<double[]> points = TemporalBench.points(args[0]);
+        KeyEncoder[] encoders = new KeyEncoder[] { new GeoHashEncoder(), new HilbertEncoder() };
+        GeometryFactory factory = new GeometryFactory();
+
+        Connection connection = ConnectionFactory.createConnection();
+        for (KeyEncoder encoder: encoders) {
+            load(connection, encoder, args[0]);
+            KNNQuery knn = new KNNQuery(connection, table(encoder), encoder, 0, null);
+            WithinQuery within = new WithinQuery(connection, table(encoder), encoder, 0, null, 0);
+
+            int queries = 0;
+            long matches = 0;
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < points.size(); i += Math.max(1, points.size() / 100)) {
+                double[] point = points.get(i);
+                matches += knn.queryKNN(point[0], point[1], 10).size();
+                Geometry box = factory.toGeometry(new Envelope(point[0] - 0.005, point[0] + 0.005,
+                        point[1] - 0.005, point[1] + 0.005));
+                matches += within.query(box).size();
+                queries++;
+            }
+            long end = System.currentTimeMillis();
+
+            System.out.println(String.format("%-8s %s query pairs, %s matches in %sms.",
+                    encoder.name(), queries, matches, end - start));
+            System.out.println(String.format("  KNN:    %s key ranges, %s rows scanned.", knn.ranges, knn.scanned));
+            System.out.println(String.format("  Within: %s key ranges, %s rows scanned.", within.ranges, within.scanned));
+        }
+
+        connection.close();
+    }
+}
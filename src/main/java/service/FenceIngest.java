@@ -0,0 +1,173 @@
+package service;
+
+import com.google.common.base.Splitter;
+import index.GeoHashCodec;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Put;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKTReader;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class FenceIngest {
+
+    private static final String usage =
+            "fenceingest fences.csv\n" +
+            "  help - print this message and exit.\n" +
+            "  fences.csv - path to the csv file to load.\n" +
+            "\n" +
+            "load geofence polygons from fences.csv. assumes new-line delimited records\n" +
+            "of the form id,wkt. drops the first line. each polygon is stored by id in\n" +
+            "the 'fences' table and indexed in 'fence_idx' under every geohash cell that\n" +
+            "covers it, one column per fence id in the 'a' family.";
+
+    static final byte[] FENCE_TABLE = "fences".getBytes();
+    static final byte[] INDEX_TABLE = "fence_idx".getBytes();
+    static final byte[] FAMILY = "a".getBytes();
+    static final byte[] WKT = "wkt".getBytes();
+    static final byte[] INTERIOR = new byte[] { 1 };
+    static final byte[] BOUNDARY = new byte[] { 0 };
+
+    static final int MAX_PRECISION = 7;
+    static final int MAX_CELLS = 256;
+
+    private static final String BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz";
+    private static final Splitter SPLITTER = Splitter.on(',').trimResults().limit(2);
+
+    final GeometryFactory factory = new GeometryFactory();
+
+    /**
+     * Covers the geometry with geohash cells no finer than MAX_PRECISION. Cells
+     * lying entirely inside the geometry map to true and need no exact check at
+     * lookup time; cells crossing its boundary map to false. Refinement stops
+     * early once the cover would grow past MAX_CELLS.
+     */
+    Map<String, Boolean> cover(Geometry fence) {
+        PreparedGeometry prepared = PreparedGeometryFactory.prepare(fence);
+        Map<String, Boolean> cells = new LinkedHashMap<>();
+        List<String> boundary = new ArrayList<>();
+        classify(prepared, commonPrefix(fence.getEnvelopeInternal()), cells, boundary);
+
+        while (!boundary.isEmpty()) {
+            if (boundary.get(0).length() >= MAX_PRECISION) {
+                break;
+            }
+            Map<String, Boolean> interior = new LinkedHashMap<>();
+            List<String> next = new ArrayList<>();
+            for (String cell: boundary) {
+                classify(prepared, children(cell), interior, next);
+            }
+            if (cells.size() + interior.size() + next.size() > MAX_CELLS) {
+                break;
+            }
+            cells.putAll(interior);
+            boundary = next;
+        }
+        for (String cell: boundary) {
+            cells.put(cell, false);
+        }
+        return cells;
+    }
+
+    void classify(PreparedGeometry prepared, List<String> candidates,
+                  Map<String, Boolean> interior, List<String> boundary) {
+        for (String cell: candidates) {
+            Geometry rect = factory.toGeometry(envelope(cell));
+            if (prepared.contains(rect)) {
+                interior.put(cell, true);
+            } else if (prepared.intersects(rect)) {
+                boundary.add(cell);
+            }
+        }
+    }
+
+    static List<String> commonPrefix(Envelope envelope) {
+        for (int precision = MAX_PRECISION; precision > 0; precision--) {
+            long sw = GeoHashCodec.encode(envelope.getMinX(), envelope.getMinY(), precision);
+            long ne = GeoHashCodec.encode(envelope.getMaxX(), envelope.getMaxY(), precision);
+            if (sw == ne) {
+                List<String> ret = new ArrayList<>(1);
+                ret.add(GeoHashCodec.toBase32(sw, precision));
+                return ret;
+            }
+        }
+        return children("");
+    }
+
+    static List<String> children(String cell) {
+        List<String> ret = new ArrayList<>(BASE32.length());
+        for (int i = 0; i < BASE32.length(); i++) {
+            ret.add(cell + BASE32.charAt(i));
+        }
+        return ret;
+    }
+
+    static Envelope envelope(String cell) {
+        double[] box = new double[4];
+        GeoHashCodec.bounds(GeoHashCodec.decode(cell), cell.length(), box);
+        return new Envelope(box[0], box[2], box[1], box[3]);
+    }
+
+    public static void main(String[] args) throws IOException, ParseException {
+        if (args.length != 1) {
+            System.out.println(usage);
+            System.exit(0);
+        }
+
+        Connection connection = ConnectionFactory.createConnection();
+        BufferedMutator fences = connection.getBufferedMutator(TableName.valueOf(FENCE_TABLE));
+        BufferedMutator index = connection.getBufferedMutator(TableName.valueOf(INDEX_TABLE));
+        FenceIngest ingest = new FenceIngest();
+        WKTReader wktReader = new WKTReader(ingest.factory);
+
+        BufferedReader reader = new BufferedReader(new FileReader(args[0]));
+        String line = reader.readLine();
+        int records = 0;
+        int indexed = 0;
+        long start = System.currentTimeMillis();
+
+        while ((line = reader.readLine()) != null) {
+            Iterator<String> vals = SPLITTER.split(line).iterator();
+            String id = vals.next();
+            String wkt = vals.next();
+            Geometry fence = wktReader.read(wkt);
+
+            Put put = new Put(id.getBytes());
+            put.addColumn(FAMILY, WKT, wkt.getBytes());
+            fences.mutate(put);
+
+            for (Map.Entry<String, Boolean> cell: ingest.cover(fence).entrySet()) {
+                Put entry = new Put(cell.getKey().getBytes());
+                entry.addColumn(FAMILY, id.getBytes(), cell.getValue() ? INTERIOR : BOUNDARY);
+                index.mutate(entry);
+                indexed++;
+            }
+            records++;
+        }
+
+        fences.flush();
+        index.flush();
+        long end = System.currentTimeMillis();
+        System.out.println(String.format("Indexed %s fences under %s cells in %sms.", records, indexed, end - start));
+
+        reader.close();
+        fences.close();
+        index.close();
+        connection.close();
+    }
+}
@@ -0,0 +1,149 @@
+package service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import index.GeoHashCodec;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.*;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKTReader;
+
+import java.io.IOException;
+import java.util.*;
+
+public class FenceQuery {
+
+    static final byte[] FENCE_TABLE = FenceIngest.FENCE_TABLE;
+    static final byte[] INDEX_TABLE = FenceIngest.INDEX_TABLE;
+    static final byte[] FAMILY = FenceIngest.FAMILY;
+    static final byte[] WKT = FenceIngest.WKT;
+
+    private static final String usage =
+            "service.FenceQuery lon lat\n" +
+            "  help - print this message and exit.\n" +
+            "  lon, lat - query position.\n" +
+            "\n" +
+            "list the ids of the stored geofences containing the query position.";
+
+    final GeometryFactory factory = new GeometryFactory();
+    final Connection connection;
+    final Cache<String, PreparedGeometry> fences;
+
+    public FenceQuery(Connection connection) {
+        this(connection, 10000);
+    }
+
+    public FenceQuery(Connection connection, int cacheSize) {
+        this.connection = connection;
+        this.fences = CacheBuilder.newBuilder().maximumSize(cacheSize).build();
+    }
+
+    /** loads the fences in one batch; ids without a fence row are left out. */
+    Map<String, PreparedGeometry> loadFences(Iterable<? extends String> ids) throws IOException, ParseException {
+        List<Get> gets = new ArrayList<>();
+        for (String id: ids) {
+            gets.add(new Get(id.getBytes()).addColumn(FAMILY, WKT));
+        }
+        WKTReader reader = new WKTReader(factory);
+        Map<String, PreparedGeometry> ret = new HashMap<>(gets.size());
+        try (Table table = connection.getTable(TableName.valueOf(FENCE_TABLE))) {
+            for (Result result: table.get(gets)) {
+                if (result.isEmpty()) {
+                    continue;
+                }
+                String wkt = new String(result.getValue(FAMILY, WKT));
+                ret.put(new String(result.getRow()), PreparedGeometryFactory.prepare(reader.read(wkt)));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the ids of every fence containing the point. Only the index rows
+     * for the point's own cell and its ancestors are read, in a single batch.
+     * Fences indexed as covering a cell entirely are accepted outright; the
+     * rest are checked against their cached prepared geometry.
+     */
+    public Set<String> query(double lon, double lat) throws IOException {
+        String hash = GeoHashCodec.toBase32(GeoHashCodec.encode(lon, lat, FenceIngest.MAX_PRECISION), FenceIngest.MAX_PRECISION);
+        List<Get> gets = new ArrayList<>(hash.length());
+        for (int precision = 1; precision <= hash.length(); precision++) {
+            gets.add(new Get(hash.substring(0, precision).getBytes()).addFamily(FAMILY));
+        }
+
+        Set<String> ret = new HashSet<>();
+        Set<String> candidates = new HashSet<>();
+        try (Table table = connection.getTable(TableName.valueOf(INDEX_TABLE))) {
+            for (Result result: table.get(gets)) {
+                if (result.isEmpty()) {
+                    continue;
+                }
+                for (Cell cell: result.rawCells()) {
+                    String id = new String(CellUtil.cloneQualifier(cell));
+                    if (CellUtil.cloneValue(cell)[0] == FenceIngest.INTERIOR[0]) {
+                        ret.add(id);
+                    } else {
+                        candidates.add(id);
+                    }
+                }
+            }
+        }
+        candidates.removeAll(ret);
+        if (candidates.isEmpty()) {
+            return ret;
+        }
+
+        // the index may still name fences whose rows were deleted; those are
+        // not cached and simply match nothing.
+        Map<String, PreparedGeometry> geometries = new HashMap<>(fences.getAllPresent(candidates));
+        Set<String> missing = new HashSet<>(candidates);
+        missing.removeAll(geometries.keySet());
+        if (!missing.isEmpty()) {
+            Map<String, PreparedGeometry> loaded;
+            try {
+                loaded = loadFences(missing);
+            } catch (ParseException e) {
+                throw new IOException("Unable to load fences " + missing, e);
+            }
+            fences.putAll(loaded);
+            geometries.putAll(loaded);
+        }
+        Point point = factory.createPoint(new Coordinate(lon, lat));
+        for (Map.Entry<String, PreparedGeometry> entry: geometries.entrySet()) {
+            if (entry.getValue().contains(point)) {
+                ret.add(entry.getKey());
+            }
+        }
+        return ret;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println(usage);
+            System.exit(0);
+        }
+
+        double lon = Double.parseDouble(args[0]);
+        double lat = Double.parseDouble(args[1]);
+
+        Connection connection = ConnectionFactory.createConnection();
+        FenceQuery query = new FenceQuery(connection);
+        long start = System.currentTimeMillis();
+        Set<String> results = query.query(lon, lat);
+        long end = System.currentTimeMillis();
+
+        System.out.println(String.format("Point is inside %s fences (%sms).", results.size(), end - start));
+        for (String id: results) {
+            System.out.println(id);
+        }
+
+        connection.close();
+    }
+}
@@ -1,84 +1,135 @@
 package service;
 
-import ch.hsr.geohash.GeoHash;
-import com.google.common.base.Splitter;
-import org.apache.commons.collections.iterators.ArrayIterator;
+import index.GeoHashEncoder;
+import index.KeyEncoder;
 import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.client.BufferedMutator;
 import org.apache.hadoop.hbase.client.Connection;
 import org.apache.hadoop.hbase.client.ConnectionFactory;
 import org.apache.hadoop.hbase.client.Put;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class Ingest {
 
     private static final String usage =
-            "ingest table source.csv\n" +
+            "ingest [-encoder geohash|hilbert] [-pyramid] [-bucket hours] table source.csv\n" +
             "  help - print this message and exit.\n" +
+            "  -encoder - the rowkey encoding, geohash by default. queries against\n" +
+            "             the table must be given the same encoder.\n" +
+            "  -pyramid - also add the new rows' counts per prefix at levels 1-8 to\n" +
+            "             the 'table_counts' side table. rows already in the table\n" +
+            "             are not counted again.\n" +
+            "  -bucket - prefix each rowkey with its ts bucket of the given width.\n" +
+            "            requires the optional ts column.\n" +
             "  table - the target table to load.\n" +
             "  source.csv - path to the csv file to load.\n" +
             "\n" +
             "load data from source.csv. assumes new-line delimited, comma-separated\n" +
-            "records. drops the first line. generates a geohash for the rowkey.\n" +
+            "records. drops the first line. generates the encoder's finest cell,\n" +
+            "a 12 character geohash by default, for the rowkey.\n" +
             "records are stored in columns in the 'a' family, columns are:\n" +
-            "  lon,lat,id\\n";
+            "  lon,lat,id\n" +
+            "the id is the rest of the line and may hold commas. an optional fourth\n" +
+            "column, ts, holds the observation time in epoch millis and is stored\n" +
+            "as the 'ts' column; it is taken only when it is an integer.\n" +
+            "\n" +
+            "the file is memory-mapped and parsed in parallel chunks. lines whose\n" +
+            "lon or lat is not a number are skipped and reported.";
 
     private static final byte[] FAMILY = "a".getBytes();
-    private static final String[] COLUMNS = new String[] {
-            "lon", "lat", "id"
+    private static final byte[][] COLUMNS = new byte[][] {
+            "lon".getBytes(), "lat".getBytes(), "id".getBytes(), TimeBuckets.TS_COL
     };
-    private static final ArrayIterator COLS = new ArrayIterator(COLUMNS);
-    private static final Splitter SPLITTER = Splitter.on(',').trimResults().limit(COLUMNS.length);
 
     public static void main(String[] args) throws IOException {
-        if (args.length != 2) {
+        KeyEncoder encoder = new GeoHashEncoder();
+        boolean pyramid = false;
+        long bucketMillis = 0;
+        int arg = 0;
+        for (; arg < args.length && args[arg].startsWith("-"); arg++) {
+            if ("-encoder".equals(args[arg]) && arg + 1 < args.length) {
+                encoder = KeyEncoder.forName(args[++arg]);
+            } else if ("-pyramid".equals(args[arg])) {
+                pyramid = true;
+            } else if ("-bucket".equals(args[arg]) && arg + 1 < args.length) {
+                bucketMillis = Long.parseLong(args[++arg]) * TimeBuckets.HOUR_MILLIS;
+            } else {
+                break;
+            }
+        }
+        if (args.length - arg != 2) {
             System.out.println(usage);
             System.exit(0);
         }
+        final long bucket = bucketMillis;
+        final KeyEncoder keys = encoder;
+        TableName tableName = TableName.valueOf(args[args.length - 2]);
 
         Connection connection = ConnectionFactory.createConnection();
-        BufferedMutator bufferedMutator = connection.getBufferedMutator(TableName.valueOf(args[0]));
+        BufferedMutator bufferedMutator = connection.getBufferedMutator(tableName);
         bufferedMutator.disableWriteBufferPeriodicFlush();
+        final CountPyramid counts = pyramid ? new CountPyramid(connection, tableName) : null;
+        final int keyOffset = bucket == 0 ? 0 : TimeBuckets.KEY_LENGTH;
+        // with -pyramid each worker hands its puts to the pyramid in batches.
+        final Queue<List<Put>> batches = new ConcurrentLinkedQueue<>();
+        final ThreadLocal<List<Put>> batch = ThreadLocal.withInitial(() -> {
+            List<Put> ret = new ArrayList<>(CountPyramid.BATCH_SIZE);
+            batches.add(ret);
+            return ret;
+        });
+        if (counts != null) {
+            counts.create();
+        }
 
-        BufferedReader reader = new BufferedReader(new FileReader(args[1]));
-        String line = reader.readLine();
-        int records = 0;
+        MappedCsvReader reader = new MappedCsvReader(args[args.length - 1]);
         long start = System.currentTimeMillis();
 
-        while ((line = reader.readLine()) != null) {
-            COLS.reset();
-            Iterator<String> vals = SPLITTER.split(line).iterator();
-            Map<String, String> row = new HashMap<>(COLUMNS.length);
-
-            while (vals.hasNext() && COLS.hasNext()) {
-                String col = (String) COLS.next();
-                String val = vals.next();
-                row.put(col, val);
+        reader.read(new MappedCsvReader.Handler() {
+            @Override
+            public void handle(MappedCsvReader.Record record) throws IOException {
+                String rowkey = keys.encode(record.lon, record.lat, keys.maxLevel());
+                if (bucket != 0 && !record.hasTime) {
+                    throw new IOException(String.format("Record at %s,%s has no ts column, which -bucket requires.",
+                            record.lon, record.lat));
+                }
+                Put put = new Put((bucket == 0 ? rowkey : TimeBuckets.key(record.time, bucket) + rowkey).getBytes());
+                for (int i = 0; i < record.fields; i++) {
+                    put.addColumn(FAMILY, COLUMNS[i], record.field(i));
+                }
+                if (counts == null) {
+                    bufferedMutator.mutate(put);
+                    return;
+                }
+                List<Put> puts = batch.get();
+                puts.add(put);
+                if (puts.size() == CountPyramid.BATCH_SIZE) {
+                    counts.load(bufferedMutator, puts, keyOffset);
+                    puts.clear();
+                }
             }
+        });
 
-            double lat = Double.parseDouble(row.get("lat"));
-            double lon = Double.parseDouble(row.get("lon"));
-            String rowkey = GeoHash.withCharacterPrecision(lat, lon, 12).toBase32();
-            Put put = new Put(rowkey.getBytes());
-            for (Map.Entry<String, String> entry: row.entrySet()) {
-                put.addColumn(FAMILY, entry.getKey().getBytes(), entry.getValue().getBytes());
+        if (counts != null) {
+            for (List<Put> puts: batches) {
+                counts.load(bufferedMutator, puts, keyOffset);
             }
-
-            bufferedMutator.mutate(put);
-            records++;
         }
-
         bufferedMutator.flush();
+        if (counts != null) {
+            System.out.println(String.format("Updated %s prefix counts.", counts.flush()));
+        }
         long end = System.currentTimeMillis();
-        System.out.println(String.format("Geohashed %s records in %sms.", records, end - start));
+        System.out.println(String.format("Encoded %s records in %sms.", reader.records(), end - start));
+        if (reader.malformed() > 0) {
+            System.out.println(String.format("Skipped %s malformed lines, first at offsets %s.",
+                    reader.malformed(), reader.malformedOffsets()));
+        }
 
-        reader.close();
         bufferedMutator.close();
         connection.close();
     }
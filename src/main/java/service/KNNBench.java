@@ -0,0 +1,97 @@
+package service;
+
+import index.GeoHashEncoder;
+import model.QueryMatch;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+
+import java.io.IOException;
+import java.util.*;
+
+public class KNNBench {
+
+    static final long[] ROW_BUDGETS = { 1, 2, 5, 10, 25, 100 };
+    static final long[] RANGE_BUDGETS = { 1, 2, 4, 9 };
+
+    private static final String usage =
+            "service.KNNBench source.csv [n]\n" +
+            "  help - print this message and exit.\n" +
+            "  source.csv - the points loaded into 'wifi'; a sample of them are the\n" +
+            "               query positions.\n" +
+            "  n - the number of neighbours, 10 by default.\n" +
+            "\n" +
+            "runs exact KNN at each query position, then approximate KNN under row\n" +
+            "budgets of 1 to 100 times n and range budgets of 1 to 9 scans, and reports\n" +
+            "recall against the exact result, the share of answers known to be exact,\n" +
+            "rows read and mean latency for each budget.";
+
+    static Set<String> ids(Collection<QueryMatch> matches) {
+        Set<String> ret = new HashSet<>();
+        for (QueryMatch match: matches) {
+            ret.add(match.id);
+        }
+        return ret;
+    }
+
+    static void report(String budget, KNNQuery query, List<double[]> queries, List<Set<String>> exact, int n,
+                       long maxRows, long maxRanges) throws IOException {
+        long hits = 0;
+        long proven = 0;
+        long rows = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < queries.size(); i++) {
+            double[] point = queries.get(i);
+            KNNQuery.Approximate approximate = query.queryApproximate(point[0], point[1], n, maxRows, maxRanges);
+            Set<String> found = ids(approximate.matches);
+            found.retainAll(exact.get(i));
+            hits += found.size();
+            proven += approximate.exact() ? 1 : 0;
+            rows += approximate.rows;
+        }
+        long elapsed = System.nanoTime() - start;
+        long expected = 0;
+        for (Set<String> ids: exact) {
+            expected += ids.size();
+        }
+        System.out.println(String.format("%-14s recall %.3f, exact %.3f, %.1f rows, %.3fms/query",
+                budget, expected == 0 ? 1 : (double) hits / expected, (double) proven / queries.size(),
+                (double) rows / queries.size(), elapsed / 1e6 / queries.size()));
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1 && args.length != 2) {
+            System.out.println(usage);
+            System.exit(0);
+        }
+
+        List<double[]> points = TemporalBench.points(args[0]);
+        int n = args.length == 2 ? Integer.parseInt(args[1]) : 10;
+        List<double[]> queries = new ArrayList<>();
+        for (int i = 0; i < points.size(); i += Math.max(1, points.size() / 100)) {
+            queries.add(points.get(i));
+        }
+
+        Connection connection = ConnectionFactory.createConnection();
+        TableName table = TableName.valueOf(KNNQuery.TABLE);
+        KNNQuery query = new KNNQuery(connection, table, new GeoHashEncoder(), 0, DensityStats.forTable(connection, table));
+
+        List<Set<String>> exact = new ArrayList<>();
+        long start = System.nanoTime();
+        for (double[] point: queries) {
+            exact.add(ids(query.queryKNN(point[0], point[1], n)));
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println(String.format("%-14s recall 1.000, exact 1.000, %.1f rows, %.3fms/query",
+                "exact", (double) query.scanned / queries.size(), elapsed / 1e6 / queries.size()));
+
+        for (long budget: ROW_BUDGETS) {
+            report(String.format("rows %s", budget * n), query, queries, exact, n, budget * n, Long.MAX_VALUE);
+        }
+        for (long budget: RANGE_BUDGETS) {
+            report(String.format("ranges %s", budget), query, queries, exact, n, Long.MAX_VALUE, budget);
+        }
+
+        connection.close();
+    }
+}
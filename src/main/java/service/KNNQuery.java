@@ -1,16 +1,16 @@
 package service;
 
-import ch.hsr.geohash.GeoHash;
 import com.google.common.collect.MinMaxPriorityQueue;
+import index.GeoHashEncoder;
+import index.KeyEncoder;
+import index.KeyRange;
 import model.DistanceComparator;
 import model.QueryMatch;
 import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.client.*;
-import org.apache.hadoop.hbase.filter.PrefixFilter;
 
 import java.io.IOException;
-import java.util.Comparator;
-import java.util.Queue;
+import java.util.*;
 
 public class KNNQuery {
 
@@ -21,58 +21,101 @@ public class KNNQuery {
     static final byte[] Y_COL = "lat".getBytes();
 
     private static final String usage =
-        "service.KNNQuery lon lat n\n" +
+        "service.KNNQuery [-encoder geohash|hilbert] [-budget rows ranges] lon lat n [table from to bucket-hours]\n" +
         "   help - print this message and exit.\n" +
+        "   -encoder - the rowkey encoding the table was loaded with, geohash by default.\n" +
+        "   -budget - return the best n found reading at most this many rows over\n" +
+        "             this many scans, and the distance within which they are exact.\n" +
         "   lon, lat - query position.\n" +
-        "   n - the number of neighbors to return.";
+        "   n - the number of neighbors to return.\n" +
+        "   table - the table to query, 'wifi' by default.\n" +
+        "   from, to - restrict to observations with from <= ts < to, epoch millis.\n" +
+        "   bucket-hours - the table's time bucket width, 0 if it is not bucketed.";
     final Connection connection;
-    int precision = 7;
+    final TableName table;
+    final KeyEncoder encoder;
+    final long bucketMillis;
+    final DensityStats stats;
+    final int precision;
+    long scanned = 0;
+    long ranges = 0;
 
-    public KNNQuery(Connection connection) {
+    /**
+     * @param encoder the rowkey encoding the table was loaded with.
+     * @param bucketMillis the time bucket width the table was loaded with, or 0
+     *                     for a table keyed by cell alone.
+     * @param stats prefix counts used to choose the starting precision for n
+     *              and to size scanner caching per prefix, or null.
+     */
+    public KNNQuery(Connection connection, TableName table, KeyEncoder encoder, long bucketMillis,
+                    DensityStats stats) {
         this.connection = connection;
+        this.table = table;
+        this.encoder = encoder;
+        this.bucketMillis = bucketMillis;
+        this.stats = stats;
+        this.precision = encoder.defaultLevel();
     }
 
-    public KNNQuery(Connection connection, int characterPrecision) {
-        this.connection = connection;
-        this.precision = characterPrecision;
+    Queue<QueryMatch> takeN(Comparator<QueryMatch> comparator, KeyRange range, int n) throws IOException {
+        return takeN(comparator, range, n, Long.MIN_VALUE, Long.MAX_VALUE);
     }
 
-    Queue<QueryMatch> takeN(Comparator<QueryMatch> comparator, String prefix, int n) throws IOException {
+    Queue<QueryMatch> takeN(Comparator<QueryMatch> comparator, KeyRange range, int n, long from, long to)
+            throws IOException {
         Queue<QueryMatch> candidates = MinMaxPriorityQueue.orderedBy(comparator).maximumSize(n).create();
-        Scan scan = new Scan().withStartRow(prefix.getBytes());
-        scan.setFilter(new PrefixFilter(prefix.getBytes()));
-        scan.addFamily(FAMILY);
-        scan.readVersions(1);
-        scan.setCaching(50);
-
-        Table table = connection.getTable(TableName.valueOf(TABLE));
+        Table table = connection.getTable(this.table);
 
         int cnt = 0;
-        ResultScanner scanner = table.getScanner(scan);
-        for (Result result: scanner) {
-            String hash = new String(result.getRow());
-            String id = new String(result.getValue(FAMILY, ID));
-            double lon = Double.parseDouble(new String(result.getValue(FAMILY, X_COL)));
-            double lat = Double.parseDouble(new String(result.getValue(FAMILY, Y_COL)));
-            QueryMatch q = new QueryMatch(id, hash, lon, lat);
-            q.distance = ((DistanceComparator)comparator).calculateDistance(q);
-            candidates.add(q);
-            cnt++;
+        int caching = DensityStats.caching(stats, encoder, range);
+        for (byte[][] keys: TimeBuckets.ranges(range, from, to, bucketMillis)) {
+            Scan scan = new Scan().withStartRow(keys[0]).withStopRow(keys[1]);
+            scan.addFamily(FAMILY);
+            scan.readVersions(1);
+            scan.setCaching(caching);
+
+            ResultScanner scanner = table.getScanner(scan);
+            ranges++;
+            for (Result result: scanner) {
+                scanned++;
+                if (!TimeBuckets.inWindow(result, FAMILY, from, to)) {
+                    continue;
+                }
+                String hash = TimeBuckets.hash(result.getRow(), bucketMillis);
+                String id = new String(result.getValue(FAMILY, ID));
+                double lon = Double.parseDouble(new String(result.getValue(FAMILY, X_COL)));
+                double lat = Double.parseDouble(new String(result.getValue(FAMILY, Y_COL)));
+                QueryMatch q = new QueryMatch(id, hash, lon, lat);
+                q.distance = ((DistanceComparator)comparator).calculateDistance(q);
+                candidates.add(q);
+                cnt++;
+            }
+            scanner.close();
         }
         table.close();
-        System.out.println(String.format("Scan over '%s' returned %s candidates.", prefix, cnt));
+        System.out.println(String.format("Scan over '%s' returned %s candidates.", range, cnt));
         return candidates;
     }
 
     public Queue<QueryMatch> queryKNN(double lon, double lat, int n) throws IOException {
+        return queryKNN(lon, lat, n, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Returns the n nearest points observed in the time window [from, to).
+     * On a time-bucketed table only the buckets overlapping the window are
+     * scanned.
+     */
+    public Queue<QueryMatch> queryKNN(double lon, double lat, int n, long from, long to) throws IOException {
         DistanceComparator comparator = new DistanceComparator(lon, lat);
         Queue<QueryMatch> ret = MinMaxPriorityQueue.orderedBy(comparator).maximumSize(n).create();
-        GeoHash target;
-        for (int pre = precision; pre != 1; pre--) {
-            target = GeoHash.withCharacterPrecision(lat, lon, pre);
-            ret.addAll(takeN(comparator, target.toBase32(), n));
-            for (GeoHash hash: target.getAdjacent()) {
-                ret.addAll(takeN(comparator, hash.toBase32(), n));
+        int start = stats == null ? precision : stats.startPrecision(encoder, lon, lat, n, precision);
+        for (int pre = start; pre > 1; pre--) {
+            String target = encoder.encode(lon, lat, pre);
+            List<String> cells = new ArrayList<>(Arrays.asList(encoder.adjacent(target)));
+            cells.add(target);
+            for (KeyRange range: encoder.ranges(cells)) {
+                ret.addAll(takeN(comparator, range, n, from, to));
             }
             if (ret.size() == n) {
                 break;
@@ -83,8 +126,151 @@ public class KNNQuery {
         return ret;
     }
 
+    /**
+     * The best n points found within a budget, with the distance inside which
+     * every point was seen. When n points were found and the n-th is within
+     * that bound, or every cell was read, the result is exact; otherwise the
+     * true n-th neighbour lies between the bound and the n-th distance.
+     */
+    public static final class Approximate {
+        public final List<QueryMatch> matches;
+        public final int n;
+        public final double bound;
+        public final long rows;
+        public final long ranges;
+
+        Approximate(List<QueryMatch> matches, int n, double bound, long rows, long ranges) {
+            this.matches = matches;
+            this.n = n;
+            this.bound = bound;
+            this.rows = rows;
+            this.ranges = ranges;
+        }
+
+        public double kth() {
+            return matches.isEmpty() ? Double.POSITIVE_INFINITY : matches.get(matches.size() - 1).distance;
+        }
+
+        public boolean exact() {
+            // an unbounded search read every cell, so fewer than n is all there is.
+            return bound == Double.POSITIVE_INFINITY || matches.size() == n && kth() <= bound;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s matches from %s rows in %s ranges, n-th at %.5f, complete to %.5f%s",
+                    matches.size(), rows, ranges, kth(), bound, exact() ? " (exact)" : "");
+        }
+    }
+
+    public Approximate queryApproximate(double lon, double lat, int n, long maxRows, long maxRanges)
+            throws IOException {
+        return queryApproximate(lon, lat, n, maxRows, maxRanges, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Returns the best n points found reading at most maxRows rows over at
+     * most maxRanges scans. Cells at the starting precision are scanned
+     * nearest first, outwards from the target cell, until the budget is spent
+     * or the next cell is farther than the n-th candidate.
+     */
+    public Approximate queryApproximate(double lon, double lat, int n, long maxRows, long maxRanges,
+                                        long from, long to) throws IOException {
+        final DistanceComparator comparator = new DistanceComparator(lon, lat);
+        MinMaxPriorityQueue<QueryMatch> candidates = MinMaxPriorityQueue.orderedBy(comparator).maximumSize(n).create();
+        int start = stats == null ? precision : stats.startPrecision(encoder, lon, lat, n, precision);
+        final Map<Long, Double> distances = new HashMap<>();
+        PriorityQueue<Long> frontier = new PriorityQueue<>(Comparator.comparingDouble(distances::get));
+        long target = encoder.cell(lon, lat, start);
+        distances.put(target, 0.0);
+        frontier.add(target);
+        // cells are expanded as numbers into reused buffers; only the cells
+        // actually scanned are turned into rowkeys.
+        long[] adjacent = new long[8];
+        double[] bounds = new double[4];
+
+        long rows = 0;
+        long scans = 0;
+        Table table = connection.getTable(this.table);
+        while (!frontier.isEmpty() && rows < maxRows && scans < maxRanges) {
+            long cell = frontier.peek();
+            if (candidates.size() == n && distances.get(cell) >= candidates.peekLast().distance) {
+                break;
+            }
+            KeyRange range = new KeyRange(Collections.singletonList(encoder.key(cell, start)));
+            boolean complete = true;
+            for (byte[][] keys: TimeBuckets.ranges(range, from, to, bucketMillis)) {
+                if (rows >= maxRows || scans >= maxRanges) {
+                    complete = false;
+                    break;
+                }
+                Scan scan = new Scan().withStartRow(keys[0]).withStopRow(keys[1]);
+                scan.addFamily(FAMILY);
+                scan.readVersions(1);
+                scan.setLimit((int) Math.min(Integer.MAX_VALUE, maxRows - rows));
+                scan.setCaching((int) Math.min(DensityStats.caching(stats, encoder, range), maxRows - rows));
+                long read = 0;
+                try (ResultScanner scanner = table.getScanner(scan)) {
+                    scans++;
+                    for (Result result: scanner) {
+                        read++;
+                        if (!TimeBuckets.inWindow(result, FAMILY, from, to)) {
+                            continue;
+                        }
+                        String hash = TimeBuckets.hash(result.getRow(), bucketMillis);
+                        String id = new String(result.getValue(FAMILY, ID));
+                        double x = Double.parseDouble(new String(result.getValue(FAMILY, X_COL)));
+                        double y = Double.parseDouble(new String(result.getValue(FAMILY, Y_COL)));
+                        QueryMatch q = new QueryMatch(id, hash, x, y);
+                        q.distance = comparator.calculateDistance(q);
+                        candidates.add(q);
+                    }
+                }
+                rows += read;
+                if (rows >= maxRows) {
+                    // the limit may have cut the scan short.
+                    complete = false;
+                }
+            }
+            if (!complete) {
+                break;
+            }
+            frontier.poll();
+            int count = encoder.adjacent(cell, start, adjacent);
+            for (int i = 0; i < count; i++) {
+                if (!distances.containsKey(adjacent[i])) {
+                    encoder.bounds(adjacent[i], start, bounds);
+                    distances.put(adjacent[i], comparator.minDistance(bounds[0], bounds[1], bounds[2], bounds[3]));
+                    frontier.add(adjacent[i]);
+                }
+            }
+        }
+        table.close();
+        scanned += rows;
+        ranges += scans;
+
+        // everything nearer than the nearest cell not fully read has been seen.
+        double bound = frontier.isEmpty() ? Double.POSITIVE_INFINITY : distances.get(frontier.peek());
+        List<QueryMatch> matches = new ArrayList<>(candidates.size());
+        QueryMatch m;
+        while ((m = candidates.poll()) != null) {
+            matches.add(m);
+        }
+        return new Approximate(matches, n, bound, rows, scans);
+    }
+
     public static void main(String[] args) throws IOException {
-        if (args.length != 3) {
+        KeyEncoder encoder = new GeoHashEncoder();
+        if (args.length > 1 && "-encoder".equals(args[0])) {
+            encoder = KeyEncoder.forName(args[1]);
+            args = Arrays.copyOfRange(args, 2, args.length);
+        }
+        long[] budget = null;
+        if (args.length > 2 && "-budget".equals(args[0])) {
+            budget = new long[] { Long.parseLong(args[1]), Long.parseLong(args[2]) };
+            args = Arrays.copyOfRange(args, 3, args.length);
+        }
+        if (args.length != 3 && args.length != 7) {
             System.out.println(usage);
             System.exit(0);
         }
@@ -94,8 +280,27 @@ public class KNNQuery {
         int n = Integer.parseInt(args[2]);
 
         Connection connection = ConnectionFactory.createConnection();
-        KNNQuery query = new KNNQuery(connection);
-        Queue<QueryMatch> ret = query.queryKNN(lon, lat, n);
+        KNNQuery query;
+        long from = Long.MIN_VALUE;
+        long to = Long.MAX_VALUE;
+        if (args.length == 3) {
+            TableName table = TableName.valueOf(TABLE);
+            query = new KNNQuery(connection, table, encoder, 0, DensityStats.forTable(connection, table));
+        } else {
+            long bucketMillis = Long.parseLong(args[6]) * TimeBuckets.HOUR_MILLIS;
+            query = new KNNQuery(connection, TableName.valueOf(args[3]), encoder, bucketMillis, null);
+            from = Long.parseLong(args[4]);
+            to = Long.parseLong(args[5]);
+        }
+        Queue<QueryMatch> ret;
+        if (budget == null) {
+            ret = query.queryKNN(lon, lat, n, from, to);
+        } else {
+            Approximate approximate = query.queryApproximate(lon, lat, n, budget[0], budget[1], from, to);
+            System.out.println(approximate);
+            ret = new ArrayDeque<>(approximate.matches);
+        }
+        System.out.println(String.format("Scanned %s rows.", query.scanned));
 
         QueryMatch m;
         while ((m = ret.poll()) != null) {
@@ -0,0 +1,389 @@
+package service;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads lon,lat,id[,ts] records by memory-mapping the file and parsing newline
+ * aligned chunks in parallel. Fields are parsed straight from the mapped bytes;
+ * no per-line strings or maps are built. The first line is treated as a header
+ * and dropped. Lines that cannot be parsed are counted and skipped.
+ */
+public class MappedCsvReader {
+
+    public interface Handler {
+        /** called concurrently from the worker threads; the record is reused. */
+        void handle(Record record) throws IOException;
+    }
+
+    public static final class Record {
+        public double lon, lat;
+        /** the id column as an unsigned integer, or -1 when it is not one or is absent. */
+        public long id;
+        /** the columns present: 2 (lon, lat), 3 (and id) or 4 (and ts). */
+        public int fields;
+        /** epoch millis from the optional fourth column, when hasTime. */
+        public long time;
+        public boolean hasTime;
+        ByteBuffer buf;
+        final int[] start = new int[4];
+        final int[] end = new int[4];
+
+        /** copies the raw text of field i (0 lon, 1 lat, 2 id, 3 ts). */
+        public byte[] field(int i) {
+            byte[] ret = new byte[end[i] - start[i]];
+            for (int j = 0; j < ret.length; j++) {
+                ret[j] = buf.get(start[i] + j);
+            }
+            return ret;
+        }
+    }
+
+    static final long DEFAULT_CHUNK_SIZE = 64L << 20;
+    static final int MAX_REPORTED_OFFSETS = 10;
+    /** every integer up to this is an exact double. */
+    static final long MAX_EXACT = 1L << 53;
+
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    final String path;
+    final int threads;
+    final long chunkSize;
+    final AtomicLong records = new AtomicLong();
+    final AtomicLong malformed = new AtomicLong();
+    final Queue<Long> malformedOffsets = new ConcurrentLinkedQueue<>();
+
+    public MappedCsvReader(String path) {
+        this(path, Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE);
+    }
+
+    public MappedCsvReader(String path, int threads, long chunkSize) {
+        this.path = path;
+        this.threads = threads;
+        this.chunkSize = Math.min(chunkSize, Integer.MAX_VALUE);
+    }
+
+    public long records() {
+        return records.get();
+    }
+
+    public long malformed() {
+        return malformed.get();
+    }
+
+    /** file offsets of the first few malformed lines. */
+    public List<Long> malformedOffsets() {
+        return new ArrayList<>(malformedOffsets);
+    }
+
+    public void read(final Handler handler) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(path, "r");
+        FileChannel channel = file.getChannel();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> chunks = new ArrayList<>();
+            long size = channel.size();
+            long pos = nextLine(channel, 0, size);
+            while (pos < size) {
+                final long start = pos;
+                final long end = nextLine(channel, Math.min(size, pos + chunkSize), size);
+                final MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+                chunks.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        parseChunk(buf, start, handler);
+                        return null;
+                    }
+                }));
+                pos = end;
+            }
+            for (Future<Void> chunk: chunks) {
+                chunk.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading " + path, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to read " + path, e.getCause());
+        } finally {
+            pool.shutdownNow();
+            channel.close();
+            file.close();
+        }
+    }
+
+    /** returns the offset just past the first newline at or after pos. */
+    static long nextLine(FileChannel channel, long pos, long size) throws IOException {
+        ByteBuffer window = ByteBuffer.allocate(8192);
+        while (pos < size) {
+            window.clear();
+            int n = channel.read(window, pos);
+            if (n <= 0) {
+                break;
+            }
+            for (int i = 0; i < n; i++) {
+                if (window.get(i) == '\n') {
+                    return pos + i + 1;
+                }
+            }
+            pos += n;
+        }
+        return size;
+    }
+
+    void parseChunk(ByteBuffer buf, long offset, Handler handler) throws IOException {
+        Record record = new Record();
+        record.buf = buf;
+        int limit = buf.limit();
+        int lineStart = 0;
+        long count = 0;
+        while (lineStart < limit) {
+            int lineEnd = lineStart;
+            while (lineEnd < limit && buf.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            int contentEnd = lineEnd;
+            if (contentEnd > lineStart && buf.get(contentEnd - 1) == '\r') {
+                contentEnd--;
+            }
+            if (contentEnd > lineStart) {
+                if (parseLine(buf, lineStart, contentEnd, record)) {
+                    handler.handle(record);
+                    count++;
+                } else {
+                    if (malformed.incrementAndGet() <= MAX_REPORTED_OFFSETS) {
+                        malformedOffsets.add(offset + lineStart);
+                    }
+                }
+            }
+            lineStart = lineEnd + 1;
+        }
+        records.addAndGet(count);
+    }
+
+    static boolean whitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\f' || b == 0x0b;
+    }
+
+    static int indexOf(ByteBuffer buf, int from, int to, byte b) {
+        for (int i = from; i < to; i++) {
+            if (buf.get(i) == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** sets field i to buf[from, to) without surrounding whitespace. */
+    static void field(ByteBuffer buf, int from, int to, Record record, int i) {
+        while (from < to && whitespace(buf.get(from))) {
+            from++;
+        }
+        while (to > from && whitespace(buf.get(to - 1))) {
+            to--;
+        }
+        record.start[i] = from;
+        record.end[i] = to;
+    }
+
+    /**
+     * Splits a line as Ingest always has, with Splitter.limit(3): lon and lat
+     * end at the first two commas and the rest of the line, which may hold
+     * further commas or be empty, is the id. A line without a second comma
+     * has no id. The one addition is ts: when the text after the first comma
+     * past the id is an integer, that is the ts and the id ends there.
+     */
+    static boolean parseLine(ByteBuffer buf, int from, int to, Record record) {
+        int first = indexOf(buf, from, to, (byte) ',');
+        if (first < 0) {
+            return false;
+        }
+        int second = indexOf(buf, first + 1, to, (byte) ',');
+        field(buf, from, first, record, 0);
+        field(buf, first + 1, second < 0 ? to : second, record, 1);
+        record.fields = 2;
+        record.hasTime = false;
+        if (second >= 0) {
+            int idEnd = to;
+            int third = indexOf(buf, second + 1, to, (byte) ',');
+            if (third >= 0) {
+                field(buf, third + 1, to, record, 3);
+                if (record.end[3] > record.start[3]) {
+                    record.time = parseLong(buf, record.start[3], record.end[3]);
+                    record.hasTime = record.time >= 0;
+                }
+                if (record.hasTime) {
+                    idEnd = third;
+                }
+            }
+            field(buf, second + 1, idEnd, record, 2);
+            record.fields = record.hasTime ? 4 : 3;
+        }
+
+        for (int i = 0; i < 2; i++) {
+            if (record.start[i] == record.end[i]) {
+                return false;
+            }
+        }
+        record.lon = parseDouble(buf, record.start[0], record.end[0]);
+        record.lat = parseDouble(buf, record.start[1], record.end[1]);
+        if (Double.isNaN(record.lon) || Double.isNaN(record.lat)) {
+            return false;
+        }
+        // ids are copied as text, so any id is accepted as Ingest always has.
+        record.id = record.fields > 2 ? parseLong(buf, record.start[2], record.end[2]) : -1;
+        return true;
+    }
+
+    /** parses an unsigned decimal, or returns -1 when the text is not one. */
+    static long parseLong(ByteBuffer buf, int from, int to) {
+        if (to == from || to - from > 18) {
+            return -1;
+        }
+        long ret = 0;
+        for (int i = from; i < to; i++) {
+            int digit = buf.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            ret = ret * 10 + digit;
+        }
+        return ret;
+    }
+
+    /**
+     * Parses a plain or exponent decimal to the same double as
+     * Double.parseDouble. Values whose digits fit in 53 bits and whose
+     * exponent is within 22 convert with one correctly rounded multiply or
+     * divide; anything else falls back to Double.parseDouble on the text.
+     * Returns NaN when the text is not a number.
+     */
+    static double parseDouble(ByteBuffer buf, int from, int to) {
+        int pos = from;
+        boolean negative = false;
+        if (buf.get(pos) == '-' || buf.get(pos) == '+') {
+            negative = buf.get(pos) == '-';
+            pos++;
+        }
+        long mantissa = 0;
+        int exponent = 0;
+        boolean seenDigit = false;
+        boolean seenPoint = false;
+        boolean exact = true;
+        for (; pos < to; pos++) {
+            byte b = buf.get(pos);
+            if (b >= '0' && b <= '9') {
+                seenDigit = true;
+                if (mantissa <= MAX_EXACT / 10) {
+                    mantissa = mantissa * 10 + (b - '0');
+                    if (seenPoint) {
+                        exponent--;
+                    }
+                } else {
+                    exact = false;
+                }
+            } else if (b == '.' && !seenPoint) {
+                seenPoint = true;
+            } else {
+                break;
+            }
+        }
+        if (!seenDigit) {
+            return Double.NaN;
+        }
+        if (pos < to) {
+            byte b = buf.get(pos);
+            if (b != 'e' && b != 'E') {
+                return Double.NaN;
+            }
+            pos++;
+            boolean negativeExponent = false;
+            if (pos < to && (buf.get(pos) == '-' || buf.get(pos) == '+')) {
+                negativeExponent = buf.get(pos) == '-';
+                pos++;
+            }
+            if (pos == to) {
+                return Double.NaN;
+            }
+            int e = 0;
+            for (; pos < to; pos++) {
+                int digit = buf.get(pos) - '0';
+                if (digit < 0 || digit > 9) {
+                    return Double.NaN;
+                }
+                e = Math.min(e * 10 + digit, 1000);
+            }
+            exponent += negativeExponent ? -e : e;
+        }
+
+        // mantissa and the power of ten are both exact doubles here, so the
+        // single operation rounds once, as parseDouble does.
+        if (!exact || mantissa > MAX_EXACT || exponent < -22 || exponent > 22) {
+            return Double.parseDouble(text(buf, from, to));
+        }
+        double value = mantissa;
+        if (exponent < 0) {
+            value /= POW10[-exponent];
+        } else if (exponent > 0) {
+            value *= POW10[exponent];
+        }
+        return negative ? -value : value;
+    }
+
+    static String text(ByteBuffer buf, int from, int to) {
+        char[] ret = new char[to - from];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = (char) buf.get(from + i);
+        }
+        return new String(ret);
+    }
+
+    /**
+     * Parses every line of a csv both here and with String.split and
+     * Double.parseDouble, as Ingest used to, and reports the coordinates that
+     * differ. Exits non-zero if any do.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.out.println("service.MappedCsvReader source.csv\n" +
+                    "  checks that every lon and lat parses to the same double as Double.parseDouble.");
+            System.exit(0);
+        }
+        final AtomicLong values = new AtomicLong();
+        final AtomicLong differ = new AtomicLong();
+        MappedCsvReader reader = new MappedCsvReader(args[0]);
+        reader.read(new Handler() {
+            @Override
+            public void handle(Record record) {
+                for (int i = 0; i < 2; i++) {
+                    String text = new String(record.field(i)).trim();
+                    double expected = Double.parseDouble(text);
+                    double actual = i == 0 ? record.lon : record.lat;
+                    values.incrementAndGet();
+                    if (Double.doubleToLongBits(expected) != Double.doubleToLongBits(actual)) {
+                        if (differ.incrementAndGet() <= MAX_REPORTED_OFFSETS) {
+                            System.out.println(String.format("%s parsed as %s, expected %s", text, actual, expected));
+                        }
+                    }
+                }
+            }
+        });
+        System.out.println(String.format("%s of %s values differ from Double.parseDouble; %s lines malformed.",
+                differ.get(), values.get(), reader.malformed()));
+        System.exit(differ.get() == 0 ? 0 : 1);
+    }
+}
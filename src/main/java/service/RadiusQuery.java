@@ -0,0 +1,159 @@
+package service;
+
+import index.GeoHashCodec;
+import model.DistanceComparator;
+import model.QueryMatch;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.*;
+
+import java.io.IOException;
+import java.util.*;
+
+public class RadiusQuery {
+
+    static final byte[] TABLE = "wifi".getBytes();
+    static final byte[] FAMILY = "a".getBytes();
+    static final byte[] ID = "id".getBytes();
+    static final byte[] X_COL = "lon".getBytes();
+    static final byte[] Y_COL = "lat".getBytes();
+
+    static final int MAX_PRECISION = 8;
+
+    private static final String usage =
+            "service.RadiusQuery lon lat radius\n" +
+            "  help - print this message and exit.\n" +
+            "  lon, lat - query position.\n" +
+            "  radius - search radius in metres.";
+
+    final Connection connection;
+
+    public RadiusQuery(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Picks the finest precision whose cells are at least half the radius on
+     * their shorter side, which keeps the cover to a handful of cells across.
+     */
+    int precisionFor(double lon, double lat, double radius) {
+        double[] box = new double[4];
+        for (int precision = MAX_PRECISION; precision > 1; precision--) {
+            GeoHashCodec.bounds(GeoHashCodec.encode(lon, lat, precision), precision, box);
+            double height = Math.toRadians(box[3] - box[1]) * DistanceComparator.EARTH_RADIUS;
+            double width = Math.toRadians(box[2] - box[0]) * DistanceComparator.EARTH_RADIUS
+                    * Math.cos(Math.toRadians(Math.min(Math.abs(lat), 89.9)));
+            if (Math.min(height, width) >= radius / 2) {
+                return precision;
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Collects the cells at the given precision whose nearest point lies within
+     * the radius, walking outwards from the centre cell through neighbours.
+     */
+    List<Long> cover(DistanceComparator comparator, double lon, double lat, double radius, int precision) {
+        List<Long> ret = new ArrayList<>();
+        Set<Long> seen = new HashSet<>();
+        Deque<Long> pending = new ArrayDeque<>();
+        long[] adjacent = new long[8];
+        double[] box = new double[4];
+        long centre = GeoHashCodec.encode(lon, lat, precision);
+        pending.add(centre);
+        seen.add(centre);
+        while (!pending.isEmpty()) {
+            long cell = pending.poll();
+            ret.add(cell);
+            GeoHashCodec.adjacent(cell, precision, adjacent);
+            for (long neighbour: adjacent) {
+                if (seen.add(neighbour) && minDistance(comparator, neighbour, precision, box) <= radius) {
+                    pending.add(neighbour);
+                }
+            }
+        }
+        return ret;
+    }
+
+    static double minDistance(DistanceComparator comparator, long cell, int precision, double[] box) {
+        GeoHashCodec.bounds(cell, precision, box);
+        return comparator.minDistance(box[0], box[1], box[2], box[3]);
+    }
+
+    static double maxDistance(DistanceComparator comparator, long cell, int precision, double[] box) {
+        GeoHashCodec.bounds(cell, precision, box);
+        return comparator.maxDistance(box[0], box[1], box[2], box[3]);
+    }
+
+    /**
+     * Returns every point within radius metres of lon, lat ordered by
+     * great-circle distance. Points in cells lying wholly inside the circle
+     * are accepted without a per-point check.
+     */
+    public List<QueryMatch> query(double lon, double lat, double radius) throws IOException {
+        DistanceComparator comparator = new DistanceComparator(lon, lat, true);
+        int precision = precisionFor(lon, lat, radius);
+        List<Long> cells = cover(comparator, lon, lat, radius, precision);
+        double[] box = new double[4];
+        List<QueryMatch> ret = new ArrayList<>();
+        Table table = connection.getTable(TableName.valueOf(TABLE));
+
+        int inside = 0;
+        int exclusionCount = 0;
+        for (long cell: cells) {
+            boolean contained = maxDistance(comparator, cell, precision, box) <= radius;
+            if (contained) {
+                inside++;
+            }
+            byte[] p = GeoHashCodec.toBase32(cell, precision).getBytes();
+            Scan scan = new Scan().setRowPrefixFilter(p);
+            scan.addFamily(FAMILY);
+            scan.readVersions(1);
+            scan.setCaching(50);
+
+            ResultScanner scanner = table.getScanner(scan);
+            for (Result result: scanner) {
+                String hash = new String(result.getRow());
+                String id = new String(result.getValue(FAMILY, ID));
+                double x = Double.parseDouble(new String(result.getValue(FAMILY, X_COL)));
+                double y = Double.parseDouble(new String(result.getValue(FAMILY, Y_COL)));
+                QueryMatch q = new QueryMatch(id, hash, x, y);
+                q.distance = comparator.calculateDistance(q);
+                if (contained || q.distance <= radius) {
+                    ret.add(q);
+                } else {
+                    exclusionCount++;
+                }
+            }
+            scanner.close();
+        }
+        table.close();
+
+        System.out.println(String.format("Scanned %s cells (%s wholly inside), distance check filtered %s points.",
+                cells.size(), inside, exclusionCount));
+        ret.sort(comparator);
+        return ret;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.out.println(usage);
+            System.exit(0);
+        }
+
+        double lon = Double.parseDouble(args[0]);
+        double lat = Double.parseDouble(args[1]);
+        double radius = Double.parseDouble(args[2]);
+
+        Connection connection = ConnectionFactory.createConnection();
+        RadiusQuery query = new RadiusQuery(connection);
+        List<QueryMatch> results = query.query(lon, lat, radius);
+
+        System.out.println("Query matched " + results.size() + " points.");
+        for (QueryMatch result: results) {
+            System.out.println(result);
+        }
+
+        connection.close();
+    }
+}
@@ -0,0 +1,215 @@
+package service;
+
+import index.GeoHashCodec;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.RegionMetrics;
+import org.apache.hadoop.hbase.Size;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.*;
+import org.apache.hadoop.hbase.io.compress.Compression;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.hadoop.hbase.regionserver.BloomType;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+public class Schema {
+
+    static final byte[] FAMILY = "a".getBytes();
+    static final byte[][] COLUMNS = new byte[][] {
+            "lon".getBytes(), "lat".getBytes(), "id".getBytes()
+    };
+    static final String PREFIX_LENGTH_KEY = "RowPrefixBloomFilter.prefix_length";
+    // a scan only consults a row prefix bloom when its start and stop rows
+    // share that many bytes. a precision 6 cell scan stops at the cell with
+    // its last character incremented, sharing 5, so that is the longest
+    // prefix the precision 6 and 7 scans can use.
+    static final int BLOOM_PREFIX_LENGTH = 5;
+
+    private static final String usage =
+            "service.Schema create|alter table profile | bench source.csv\n" +
+            "  help - print this message and exit.\n" +
+            "  create - create the table with the 'a' family configured by profile.\n" +
+            "  alter - reconfigure the 'a' family of an existing table.\n" +
+            "  bench - load source.csv into one scratch table per profile and compare\n" +
+            "          prefix scan latency and store size.\n" +
+            "  profile - one of:\n" +
+            "    default - no encoding, row bloom filter, 64KB blocks, no compression.\n" +
+            "    prefix - ROW_INDEX_V1 encoding, 5-byte row prefix bloom filter,\n" +
+            "             16KB blocks, snappy compression.\n" +
+            "    fastdiff - FAST_DIFF encoding, 5-byte row prefix bloom filter,\n" +
+            "               16KB blocks, snappy compression.\n" +
+            "\n" +
+            "snappy must be available on the region servers for the tuned profiles.";
+
+    public enum Profile {
+        DEFAULT(DataBlockEncoding.NONE, BloomType.ROW, 0, 64 * 1024, Compression.Algorithm.NONE),
+        PREFIX(DataBlockEncoding.ROW_INDEX_V1, BloomType.ROWPREFIX_FIXED_LENGTH, BLOOM_PREFIX_LENGTH, 16 * 1024, Compression.Algorithm.SNAPPY),
+        FASTDIFF(DataBlockEncoding.FAST_DIFF, BloomType.ROWPREFIX_FIXED_LENGTH, BLOOM_PREFIX_LENGTH, 16 * 1024, Compression.Algorithm.SNAPPY);
+
+        final DataBlockEncoding encoding;
+        final BloomType bloom;
+        final int bloomPrefixLength;
+        final int blockSize;
+        final Compression.Algorithm compression;
+
+        Profile(DataBlockEncoding encoding, BloomType bloom, int bloomPrefixLength, int blockSize,
+                Compression.Algorithm compression) {
+            this.encoding = encoding;
+            this.bloom = bloom;
+            this.bloomPrefixLength = bloomPrefixLength;
+            this.blockSize = blockSize;
+            this.compression = compression;
+        }
+
+        public ColumnFamilyDescriptor family() {
+            ColumnFamilyDescriptorBuilder builder = ColumnFamilyDescriptorBuilder.newBuilder(FAMILY)
+                    .setMaxVersions(1)
+                    .setDataBlockEncoding(encoding)
+                    .setBloomFilterType(bloom)
+                    .setBlocksize(blockSize)
+                    .setCompressionType(compression);
+            if (bloom == BloomType.ROWPREFIX_FIXED_LENGTH) {
+                builder.setConfiguration(PREFIX_LENGTH_KEY, Integer.toString(bloomPrefixLength));
+            }
+            return builder.build();
+        }
+    }
+
+    final Connection connection;
+
+    public Schema(Connection connection) {
+        this.connection = connection;
+    }
+
+    public void create(TableName table, Profile profile) throws IOException {
+        try (Admin admin = connection.getAdmin()) {
+            admin.createTable(TableDescriptorBuilder.newBuilder(table).setColumnFamily(profile.family()).build());
+        }
+    }
+
+    public void alter(TableName table, Profile profile) throws IOException {
+        try (Admin admin = connection.getAdmin()) {
+            admin.modifyColumnFamily(table, profile.family());
+        }
+    }
+
+    /**
+     * Sums the store file size of the table's regions across live servers.
+     */
+    long storeFileSize(Admin admin, TableName table) throws IOException {
+        double size = 0;
+        for (ServerName server: admin.getClusterMetrics().getLiveServerMetrics().keySet()) {
+            for (RegionMetrics region: admin.getRegionMetrics(server, table)) {
+                size += region.getStoreFileSize().get(Size.Unit.BYTE);
+            }
+        }
+        return (long) size;
+    }
+
+    void load(TableName table, String path) throws IOException {
+        try (final BufferedMutator mutator = connection.getBufferedMutator(table)) {
+            new MappedCsvReader(path).read(new MappedCsvReader.Handler() {
+                @Override
+                public void handle(MappedCsvReader.Record record) throws IOException {
+                    Put put = new Put(GeoHashCodec.toBase32(GeoHashCodec.encode(record.lon, record.lat, 12), 12).getBytes());
+                    for (int i = 0; i < Math.min(COLUMNS.length, record.fields); i++) {
+                        put.addColumn(FAMILY, COLUMNS[i], record.field(i));
+                    }
+                    mutator.mutate(put);
+                }
+            });
+        }
+    }
+
+    /**
+     * Collects the distinct precision 6 and 7 cells of the source points; these
+     * are the prefixes KNNQuery and WithinQuery typically scan.
+     */
+    static List<String> workload(String path) throws IOException {
+        final Set<String> prefixes = Collections.synchronizedSet(new LinkedHashSet<String>());
+        new MappedCsvReader(path).read(new MappedCsvReader.Handler() {
+            @Override
+            public void handle(MappedCsvReader.Record record) {
+                String hash = GeoHashCodec.toBase32(GeoHashCodec.encode(record.lon, record.lat, 7), 7);
+                prefixes.add(hash.substring(0, 6));
+                prefixes.add(hash);
+            }
+        });
+        return new ArrayList<>(prefixes);
+    }
+
+    void bench(String path) throws IOException, InterruptedException {
+        List<String> prefixes = workload(path);
+        try (Admin admin = connection.getAdmin()) {
+            for (Profile profile: Profile.values()) {
+                TableName table = TableName.valueOf("schema_bench_" + profile.name().toLowerCase());
+                if (admin.tableExists(table)) {
+                    admin.disableTable(table);
+                    admin.deleteTable(table);
+                }
+                create(table, profile);
+                load(table, path);
+                admin.flush(table);
+                admin.majorCompact(table);
+                Thread.sleep(1000);
+                while (admin.getCompactionState(table) != CompactionState.NONE) {
+                    Thread.sleep(500);
+                }
+
+                long rows = 0;
+                long start = System.nanoTime();
+                try (Table t = connection.getTable(table)) {
+                    for (String prefix: prefixes) {
+                        Scan scan = new Scan().setRowPrefixFilter(prefix.getBytes());
+                        scan.addFamily(FAMILY);
+                        scan.readVersions(1);
+                        scan.setCaching(50);
+                        try (ResultScanner scanner = t.getScanner(scan)) {
+                            for (Result result: scanner) {
+                                rows++;
+                            }
+                        }
+                    }
+                }
+                long elapsed = System.nanoTime() - start;
+                System.out.println(String.format("%-8s %s scans, %s rows, %.3fms/scan, %s bytes on disk.",
+                        profile.name().toLowerCase(), prefixes.size(), rows,
+                        elapsed / 1e6 / prefixes.size(), storeFileSize(admin, table)));
+
+                admin.disableTable(table);
+                admin.deleteTable(table);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        boolean valid = args.length == 3 && ("create".equals(args[0]) || "alter".equals(args[0]))
+                || args.length == 2 && "bench".equals(args[0]);
+        if (!valid) {
+            System.out.println(usage);
+            System.exit(0);
+        }
+
+        Connection connection = ConnectionFactory.createConnection();
+        Schema schema = new Schema(connection);
+        if ("bench".equals(args[0])) {
+            schema.bench(args[1]);
+        } else {
+            TableName table = TableName.valueOf(args[1]);
+            Profile profile = Profile.valueOf(args[2].toUpperCase());
+            if ("create".equals(args[0])) {
+                schema.create(table, profile);
+            } else {
+                schema.alter(table, profile);
+            }
+            System.out.println(String.format("Applied profile %s to %s.", args[2], table));
+        }
+
+        connection.close();
+    }
+}
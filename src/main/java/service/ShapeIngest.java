@@ -0,0 +1,92 @@
+package service;
+
+import com.google.common.base.Splitter;
+import filter.ShapeFilter;
+import index.ExtentIndex;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Put;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKBWriter;
+import org.locationtech.jts.io.WKTReader;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Iterator;
+
+public class ShapeIngest {
+
+    private static final String usage =
+            "shapeingest shapes.csv\n" +
+            "  help - print this message and exit.\n" +
+            "  shapes.csv - path to the csv file to load.\n" +
+            "\n" +
+            "load lines and polygons from shapes.csv. assumes new-line delimited\n" +
+            "records of the form id,wkt. drops the first line. each geometry is stored\n" +
+            "in the 'shapes' table as WKB with its envelope, keyed by the geohash cell\n" +
+            "of its south-west corner at the finest level that can hold it, then '|'\n" +
+            "and the id.";
+
+    static final byte[] SHAPE_TABLE = "shapes".getBytes();
+    static final byte[] FAMILY = "a".getBytes();
+    static final byte[] ID = "id".getBytes();
+    static final byte[] WKB = "wkb".getBytes();
+    static final byte[] ENVELOPE = "env".getBytes();
+
+    private static final Splitter SPLITTER = Splitter.on(',').trimResults().limit(2);
+
+    static Put shape(ExtentIndex index, String id, Geometry geometry) {
+        Envelope envelope = geometry.getEnvelopeInternal();
+        Put put = new Put(index.rowkey(envelope, id).getBytes());
+        put.addColumn(FAMILY, ID, id.getBytes());
+        put.addColumn(FAMILY, WKB, new WKBWriter().write(geometry));
+        put.addColumn(FAMILY, ENVELOPE, ShapeFilter.envelope(envelope));
+        return put;
+    }
+
+    public static void main(String[] args) throws IOException, ParseException {
+        if (args.length != 1) {
+            System.out.println(usage);
+            System.exit(0);
+        }
+
+        Connection connection = ConnectionFactory.createConnection();
+        BufferedMutator shapes = connection.getBufferedMutator(TableName.valueOf(SHAPE_TABLE));
+        ExtentIndex index = new ExtentIndex();
+        WKTReader wktReader = new WKTReader(new GeometryFactory());
+        int[] levels = new int[ExtentIndex.MAX_LEVEL + 1];
+
+        BufferedReader reader = new BufferedReader(new FileReader(args[0]));
+        String line = reader.readLine();
+        int records = 0;
+        long start = System.currentTimeMillis();
+
+        while ((line = reader.readLine()) != null) {
+            Iterator<String> vals = SPLITTER.split(line).iterator();
+            String id = vals.next();
+            Geometry geometry = wktReader.read(vals.next());
+            shapes.mutate(shape(index, id, geometry));
+            levels[index.level(geometry.getEnvelopeInternal())]++;
+            records++;
+        }
+
+        shapes.flush();
+        long end = System.currentTimeMillis();
+        System.out.println(String.format("Stored %s shapes in %sms.", records, end - start));
+        for (int level = 0; level < levels.length; level++) {
+            if (levels[level] > 0) {
+                System.out.println(String.format("  level %s: %s", level, levels[level]));
+            }
+        }
+
+        reader.close();
+        shapes.close();
+        connection.close();
+    }
+}
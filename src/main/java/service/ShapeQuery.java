@@ -0,0 +1,98 @@
+package service;
+
+import filter.ShapeFilter;
+import index.ExtentIndex;
+import index.KeyRange;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.*;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKBReader;
+import org.locationtech.jts.io.WKTReader;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ShapeQuery {
+
+    static final byte[] SHAPE_TABLE = ShapeIngest.SHAPE_TABLE;
+    static final byte[] FAMILY = ShapeIngest.FAMILY;
+    static final byte[] ID = ShapeIngest.ID;
+    static final byte[] WKB = ShapeIngest.WKB;
+
+    private static final String usage =
+            "service.ShapeQuery intersects|within wkt\n" +
+            "  help - print this message and exit.\n" +
+            "  intersects - list the stored shapes meeting the query geometry.\n" +
+            "  within - list the stored shapes lying inside the query geometry.\n" +
+            "  wkt - the query geometry.\n" +
+            "\n" +
+            "the predicate is evaluated on the region servers by ShapeFilter, which\n" +
+            "must be deployed with the table.";
+
+    final GeometryFactory factory = new GeometryFactory();
+    final Connection connection;
+    final ExtentIndex index = new ExtentIndex();
+    long ranges = 0;
+
+    public ShapeQuery(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Returns the stored shapes, by id, satisfying the predicate against the
+     * query. Only the index ranges whose cells can hold a geometry meeting the
+     * query envelope are scanned; see ExtentIndex.
+     */
+    public Map<String, Geometry> query(Geometry query, ShapeFilter.Predicate predicate)
+            throws IOException, ParseException {
+        List<KeyRange> keys = index.ranges(query.getEnvelopeInternal());
+        Filter filter = new ShapeFilter(query, predicate);
+        WKBReader reader = new WKBReader(factory);
+        Map<String, Geometry> ret = new LinkedHashMap<>();
+        try (Table table = connection.getTable(TableName.valueOf(SHAPE_TABLE))) {
+            for (KeyRange range: keys) {
+                Scan scan = new Scan().withStartRow(range.start).withStopRow(range.stop);
+                scan.setFilter(filter);
+                scan.addFamily(FAMILY);
+                scan.readVersions(1);
+                scan.setCaching(50);
+                ranges++;
+                try (ResultScanner scanner = table.getScanner(scan)) {
+                    for (Result result: scanner) {
+                        ret.put(new String(result.getValue(FAMILY, ID)), reader.read(result.getValue(FAMILY, WKB)));
+                    }
+                }
+            }
+        }
+        return ret;
+    }
+
+    public static void main(String[] args) throws IOException, ParseException {
+        if (args.length != 2 || !("intersects".equals(args[0]) || "within".equals(args[0]))) {
+            System.out.println(usage);
+            System.exit(0);
+        }
+
+        ShapeFilter.Predicate predicate = ShapeFilter.Predicate.valueOf(args[0].toUpperCase());
+        Geometry geometry = new WKTReader().read(args[1]);
+
+        Connection connection = ConnectionFactory.createConnection();
+        ShapeQuery query = new ShapeQuery(connection);
+        long start = System.currentTimeMillis();
+        Map<String, Geometry> results = query.query(geometry, predicate);
+        long end = System.currentTimeMillis();
+
+        System.out.println(String.format("Query matched %s shapes over %s key ranges (%sms).",
+                results.size(), query.ranges, end - start));
+        for (Map.Entry<String, Geometry> entry: results.entrySet()) {
+            System.out.println(entry.getKey() + "\t" + entry.getValue());
+        }
+
+        connection.close();
+    }
+}
@@ -0,0 +1,288 @@
+package service;
+
+import com.google.common.collect.MinMaxPriorityQueue;
+import index.GeoHashEncoder;
+import index.KeyRange;
+import model.DistanceComparator;
+import model.QueryMatch;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKTReader;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * A read-only, memory-mapped point snapshot answering the same KNN and within
+ * queries as KNNQuery and WithinQuery without a cluster. The file is
+ *
+ *   header:  magic, version (ints), record count (long), records per block,
+ *            block count (ints), index offset (long).
+ *   records: 12-byte geohash key, lon, lat (doubles), id (long), sorted by key.
+ *   index:   the first key of every block of BLOCK_RECORDS records.
+ *
+ * Opening maps the file and reads the header only, so it takes the same time
+ * for any size. Lookups binary search the index and then one block, reading
+ * the mapped pages in place.
+ */
+public class Snapshot {
+
+    static final int MAGIC = 0x47534e50;
+    static final int VERSION = 1;
+    static final int KEY_LENGTH = 12;
+    static final int RECORD_LENGTH = KEY_LENGTH + 8 + 8 + 8;
+    static final int HEADER_LENGTH = 32;
+    static final int BLOCK_RECORDS = 256;
+    // records are mapped in segments to stay under the 2GB buffer limit.
+    static final int SEGMENT_SHIFT = 24;
+    static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+    private static final String usage =
+            "service.Snapshot export table|csv source out.snap | knn snapshot lon lat n | within snapshot wkt\n" +
+            "  help - print this message and exit.\n" +
+            "  export - write the points of a table keyed by geohash, or of a csv in\n" +
+            "           the Ingest format, to a snapshot file. ids must be integers.\n" +
+            "  knn - the n nearest points to lon, lat, as KNNQuery.\n" +
+            "  within - the points within the wkt geometry, as WithinQuery.";
+
+    final GeoHashEncoder encoder = new GeoHashEncoder();
+    final GeometryFactory factory = new GeometryFactory();
+    final long records;
+    final int blocks;
+    final ByteBuffer[] segments;
+    final ByteBuffer index;
+    int precision = encoder.defaultLevel();
+    long scanned = 0;
+    long ranges = 0;
+
+    Snapshot(long records, int blocks, ByteBuffer[] segments, ByteBuffer index) {
+        this.records = records;
+        this.blocks = blocks;
+        this.segments = segments;
+        this.index = index;
+    }
+
+    public static Snapshot open(String path) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path, "r"); FileChannel channel = file.getChannel()) {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_LENGTH);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                throw new IOException(path + " is not a version " + VERSION + " snapshot.");
+            }
+            long records = header.getLong(8);
+            if (header.getInt(16) != BLOCK_RECORDS) {
+                throw new IOException(path + " has blocks of " + header.getInt(16) + " records, expected "
+                        + BLOCK_RECORDS + ".");
+            }
+            int blocks = header.getInt(20);
+            long indexOffset = header.getLong(24);
+
+            ByteBuffer[] segments = new ByteBuffer[(int) ((records + SEGMENT_MASK) >> SEGMENT_SHIFT)];
+            for (int i = 0; i < segments.length; i++) {
+                long first = (long) i << SEGMENT_SHIFT;
+                long count = Math.min(records - first, 1L << SEGMENT_SHIFT);
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        HEADER_LENGTH + first * RECORD_LENGTH, count * RECORD_LENGTH);
+            }
+            ByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, (long) blocks * KEY_LENGTH);
+            return new Snapshot(records, blocks, segments, index);
+        }
+    }
+
+    ByteBuffer segment(long record) {
+        return segments[(int) (record >> SEGMENT_SHIFT)];
+    }
+
+    int offset(long record) {
+        return (int) (record & SEGMENT_MASK) * RECORD_LENGTH;
+    }
+
+    static int compare(ByteBuffer buf, int offset, byte[] key) {
+        for (int i = 0; i < Math.min(KEY_LENGTH, key.length); i++) {
+            int diff = (buf.get(offset + i) & 0xff) - (key[i] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return KEY_LENGTH - key.length;
+    }
+
+    int compare(long record, byte[] key) {
+        return compare(segment(record), offset(record), key);
+    }
+
+    /** the first record whose key is at least key. */
+    long seek(byte[] key) {
+        // the last block starting below key holds the answer, or it starts the next block.
+        int lo = 0;
+        int hi = blocks - 1;
+        int block = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(index, mid * KEY_LENGTH, key) < 0) {
+                block = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        if (block < 0) {
+            return 0;
+        }
+        long low = (long) block * BLOCK_RECORDS;
+        long high = Math.min(records, low + BLOCK_RECORDS);
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (compare(mid, key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    double lon(long record) {
+        return segment(record).getDouble(offset(record) + KEY_LENGTH);
+    }
+
+    double lat(long record) {
+        return segment(record).getDouble(offset(record) + KEY_LENGTH + 8);
+    }
+
+    QueryMatch match(long record) {
+        ByteBuffer buf = segment(record);
+        int offset = offset(record);
+        byte[] key = new byte[KEY_LENGTH];
+        for (int i = 0; i < KEY_LENGTH; i++) {
+            key[i] = buf.get(offset + i);
+        }
+        long id = buf.getLong(offset + KEY_LENGTH + 16);
+        return new QueryMatch(Long.toString(id), new String(key), lon(record), lat(record));
+    }
+
+    /** the records in the range as [first, end). */
+    long[] locate(KeyRange range) {
+        ranges++;
+        long first = seek(range.start);
+        long end = seek(range.stop);
+        scanned += end - first;
+        return new long[] { first, end };
+    }
+
+    /**
+     * Returns the n nearest points, searching the target cell and its
+     * neighbours from the default precision outwards as KNNQuery does.
+     */
+    public Queue<QueryMatch> queryKNN(double lon, double lat, int n) {
+        DistanceComparator comparator = new DistanceComparator(lon, lat);
+        MinMaxPriorityQueue<QueryMatch> ret = MinMaxPriorityQueue.orderedBy(comparator).maximumSize(n).create();
+        for (int pre = precision; pre > 1; pre--) {
+            String target = encoder.encode(lon, lat, pre);
+            List<String> cells = new ArrayList<>(Arrays.asList(encoder.adjacent(target)));
+            cells.add(target);
+            for (KeyRange range: encoder.ranges(cells)) {
+                long[] span = locate(range);
+                for (long record = span[0]; record < span[1]; record++) {
+                    double distance = comparator.distance(lon(record), lat(record));
+                    if (ret.size() == n && distance >= ret.peekLast().distance) {
+                        continue;
+                    }
+                    QueryMatch match = match(record);
+                    match.distance = distance;
+                    ret.add(match);
+                }
+            }
+            if (ret.size() == n) {
+                break;
+            } else {
+                ret.clear();
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the points within the query, scanning the same bounding cells
+     * as WithinQuery.
+     */
+    public Set<QueryMatch> query(Geometry query) {
+        PreparedGeometry prepared = PreparedGeometryFactory.prepare(query);
+        Envelope envelope = query.getEnvelopeInternal();
+        String[] prefixes = WithinQuery.minimumBoundingPrefixes(encoder, query);
+        Set<QueryMatch> ret = new HashSet<>();
+        for (KeyRange range: encoder.ranges(Arrays.asList(prefixes))) {
+            long[] span = locate(range);
+            for (long record = span[0]; record < span[1]; record++) {
+                double x = lon(record);
+                double y = lat(record);
+                if (envelope.contains(x, y) && prepared.contains(factory.createPoint(new Coordinate(x, y)))) {
+                    ret.add(match(record));
+                }
+            }
+        }
+        return ret;
+    }
+
+    public static void main(String[] args) throws IOException, ParseException {
+        boolean valid = args.length == 4 && "export".equals(args[0]) && ("table".equals(args[1]) || "csv".equals(args[1]))
+                || args.length == 5 && "knn".equals(args[0])
+                || args.length == 3 && "within".equals(args[0]);
+        if (!valid) {
+            System.out.println(usage);
+            System.exit(0);
+        }
+
+        if ("export".equals(args[0])) {
+            long start = System.currentTimeMillis();
+            SnapshotWriter writer = new SnapshotWriter(args[3]);
+            if ("table".equals(args[1])) {
+                Connection connection = ConnectionFactory.createConnection();
+                writer.addTable(connection, TableName.valueOf(args[2]));
+                connection.close();
+            } else {
+                writer.addCsv(args[2]);
+            }
+            writer.close();
+            long records = writer.records();
+            long end = System.currentTimeMillis();
+            System.out.println(String.format("Wrote %s records to %s in %sms.", records, args[3], end - start));
+            return;
+        }
+
+        long start = System.nanoTime();
+        Snapshot snapshot = open(args[1]);
+        long opened = System.nanoTime();
+        System.out.println(String.format("Opened %s records in %.3fms.", snapshot.records, (opened - start) / 1e6));
+
+        Collection<QueryMatch> results;
+        if ("knn".equals(args[0])) {
+            Queue<QueryMatch> ret = snapshot.queryKNN(Double.parseDouble(args[2]), Double.parseDouble(args[3]),
+                    Integer.parseInt(args[4]));
+            results = new ArrayList<>();
+            QueryMatch m;
+            while ((m = ret.poll()) != null) {
+                results.add(m);
+            }
+        } else {
+            results = snapshot.query(new WKTReader().read(args[2]));
+        }
+        long end = System.nanoTime();
+
+        System.out.println(String.format("Query matched %s points, scanned %s records in %s ranges (%.3fms).",
+                results.size(), snapshot.scanned, snapshot.ranges, (end - opened) / 1e6));
+        for (QueryMatch result: results) {
+            System.out.println(result);
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package service;
+
+import index.GeoHashCodec;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.*;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Writes point snapshots in the format Snapshot reads. Records go straight to
+ * the file in key order, so a table export streams its scan, which returns
+ * rows in key order already. Points added out of order, as a csv's are, are
+ * sorted externally: they are gathered into runs of RUN_RECORDS, each run is
+ * sorted and spilled to a temporary file, and the runs are merged into the
+ * snapshot. Memory is one run plus a read buffer per spilled run, whatever the
+ * number of points. Closing reads the block index back from the written
+ * records and fills in the header.
+ */
+public class SnapshotWriter implements Closeable {
+
+    static final byte[] FAMILY = "a".getBytes();
+    static final byte[] ID = "id".getBytes();
+    static final byte[] X_COL = "lon".getBytes();
+    static final byte[] Y_COL = "lat".getBytes();
+
+    /** points sorted in memory before a run is spilled, 32 bytes each on disk. */
+    static final int RUN_RECORDS = 1 << 20;
+    static final int RUN_BUFFER = 1 << 16;
+
+    static final class Entry implements Comparable<Entry> {
+        // the 12 character geohash as a long; base32 digits sort as their
+        // characters do, so the longs sort as the keys.
+        final long key;
+        final double lon, lat;
+        final long id;
+
+        Entry(long key, double lon, double lat, long id) {
+            this.key = key;
+            this.lon = lon;
+            this.lat = lat;
+            this.id = id;
+        }
+
+        @Override
+        public int compareTo(Entry o) {
+            return Long.compare(key, o.key);
+        }
+    }
+
+    /** a spilled run being merged, positioned at its smallest unread entry. */
+    static final class Run implements Comparable<Run> {
+        final DataInputStream in;
+        long remaining;
+        Entry head;
+
+        Run(File file, long records) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), RUN_BUFFER));
+            this.remaining = records;
+        }
+
+        boolean next() throws IOException {
+            if (remaining == 0) {
+                return false;
+            }
+            remaining--;
+            head = new Entry(in.readLong(), in.readDouble(), in.readDouble(), in.readLong());
+            return true;
+        }
+
+        @Override
+        public int compareTo(Run o) {
+            return head.compareTo(o.head);
+        }
+    }
+
+    final String path;
+    final DataOutputStream out;
+    final List<Entry> pending = new ArrayList<>();
+    final List<File> runs = new ArrayList<>();
+    final List<Long> runRecords = new ArrayList<>();
+    byte[] last = null;
+    long records = 0;
+
+    public SnapshotWriter(String path) throws IOException {
+        this.path = path;
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 20));
+        out.write(new byte[Snapshot.HEADER_LENGTH]);
+    }
+
+    /** buffers a point in any order; it is written, sorted, by the next drain. */
+    public synchronized void add(double lon, double lat, long id) throws IOException {
+        pending.add(new Entry(GeoHashCodec.encode(lon, lat, Snapshot.KEY_LENGTH), lon, lat, id));
+        if (pending.size() == RUN_RECORDS) {
+            spill();
+        }
+    }
+
+    void spill() throws IOException {
+        Collections.sort(pending);
+        File file = File.createTempFile("snapshot", ".run", new File(path).getAbsoluteFile().getParentFile());
+        file.deleteOnExit();
+        runs.add(file);
+        runRecords.add((long) pending.size());
+        try (DataOutputStream run = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), RUN_BUFFER))) {
+            for (Entry entry: pending) {
+                run.writeLong(entry.key);
+                run.writeDouble(entry.lon);
+                run.writeDouble(entry.lat);
+                run.writeLong(entry.id);
+            }
+        }
+        pending.clear();
+    }
+
+    /** writes the added points, merging the spilled runs with the ones still in memory. */
+    synchronized void drain() throws IOException {
+        if (runs.isEmpty()) {
+            Collections.sort(pending);
+            for (Entry entry: pending) {
+                write(entry);
+            }
+            pending.clear();
+            return;
+        }
+        if (!pending.isEmpty()) {
+            spill();
+        }
+        PriorityQueue<Run> queue = new PriorityQueue<>();
+        List<Run> open = new ArrayList<>();
+        try {
+            for (int i = 0; i < runs.size(); i++) {
+                Run run = new Run(runs.get(i), runRecords.get(i));
+                open.add(run);
+                if (run.next()) {
+                    queue.add(run);
+                }
+            }
+            Run run;
+            while ((run = queue.poll()) != null) {
+                write(run.head);
+                if (run.next()) {
+                    queue.add(run);
+                }
+            }
+        } finally {
+            for (Run run: open) {
+                run.in.close();
+            }
+            for (File file: runs) {
+                file.delete();
+            }
+            runs.clear();
+            runRecords.clear();
+        }
+    }
+
+    void write(Entry entry) throws IOException {
+        append(GeoHashCodec.toBase32(entry.key, Snapshot.KEY_LENGTH).getBytes(), entry.lon, entry.lat, entry.id);
+    }
+
+    /** writes a record after the last one; keys must not decrease. */
+    void append(byte[] key, double lon, double lat, long id) throws IOException {
+        if (last != null && Bytes.compareTo(last, key) > 0) {
+            throw new IOException(String.format("Key %s follows %s, snapshot records must be in key order.",
+                    Bytes.toStringBinary(key), Bytes.toStringBinary(last)));
+        }
+        out.write(key);
+        out.writeDouble(lon);
+        out.writeDouble(lat);
+        out.writeLong(id);
+        last = key;
+        records++;
+    }
+
+    /**
+     * Writes every point of a table keyed by geohash alone, streaming the scan.
+     * The id column must hold integers.
+     */
+    public void addTable(Connection connection, TableName table) throws IOException {
+        drain();
+        Scan scan = new Scan().addFamily(FAMILY);
+        scan.setCaching(DensityStats.MAX_CACHING);
+        scan.setCacheBlocks(false);
+        try (Table t = connection.getTable(table); ResultScanner scanner = t.getScanner(scan)) {
+            for (Result result: scanner) {
+                if (result.getRow().length != Snapshot.KEY_LENGTH) {
+                    throw new IOException(String.format("%s is not keyed by %s character geohash, found row %s.",
+                            table, Snapshot.KEY_LENGTH, Bytes.toStringBinary(result.getRow())));
+                }
+                double lon = Double.parseDouble(new String(result.getValue(FAMILY, X_COL)));
+                double lat = Double.parseDouble(new String(result.getValue(FAMILY, Y_COL)));
+                long id = Long.parseLong(new String(result.getValue(FAMILY, ID)));
+                append(result.getRow(), lon, lat, id);
+            }
+        }
+    }
+
+    /**
+     * Writes every well-formed record of a csv in the Ingest format, sorted
+     * externally. The reader parses coordinates as Double.parseDouble does, so
+     * keys and coordinates match a table Ingest loaded from the same file. The
+     * id column must hold integers.
+     */
+    public void addCsv(final String path) throws IOException {
+        MappedCsvReader reader = new MappedCsvReader(path);
+        reader.read(new MappedCsvReader.Handler() {
+            @Override
+            public void handle(MappedCsvReader.Record record) throws IOException {
+                if (record.id < 0) {
+                    throw new IOException(String.format("%s has id %s, snapshots need integer ids.",
+                            path, record.fields > 2 ? new String(record.field(2)) : "none"));
+                }
+                add(record.lon, record.lat, record.id);
+            }
+        });
+        if (reader.malformed() > 0) {
+            System.out.println(String.format("Skipped %s malformed lines, first at offsets %s.",
+                    reader.malformed(), reader.malformedOffsets()));
+        }
+        drain();
+    }
+
+    /** the number of records written so far. */
+    public long records() {
+        return records;
+    }
+
+    /**
+     * Writes any points still buffered, then the block index, read back from
+     * the records on disk, and the header.
+     */
+    @Override
+    public void close() throws IOException {
+        drain();
+        out.close();
+        int blocks = (int) ((records + Snapshot.BLOCK_RECORDS - 1) / Snapshot.BLOCK_RECORDS);
+        long indexOffset = Snapshot.HEADER_LENGTH + records * Snapshot.RECORD_LENGTH;
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw"); FileChannel channel = file.getChannel()) {
+            ByteBuffer key = ByteBuffer.allocate(Snapshot.KEY_LENGTH);
+            ByteBuffer index = ByteBuffer.allocate(Snapshot.KEY_LENGTH * 4096);
+            long position = indexOffset;
+            for (int block = 0; block < blocks; block++) {
+                key.clear();
+                long offset = Snapshot.HEADER_LENGTH + (long) block * Snapshot.BLOCK_RECORDS * Snapshot.RECORD_LENGTH;
+                while (key.hasRemaining()) {
+                    if (channel.read(key, offset + key.position()) < 0) {
+                        throw new EOFException(path + " ended inside its records.");
+                    }
+                }
+                key.flip();
+                index.put(key);
+                if (!index.hasRemaining()) {
+                    position += writeFully(channel, index, position);
+                }
+            }
+            writeFully(channel, index, position);
+
+            ByteBuffer header = ByteBuffer.allocate(Snapshot.HEADER_LENGTH);
+            header.putInt(Snapshot.MAGIC);
+            header.putInt(Snapshot.VERSION);
+            header.putLong(records);
+            header.putInt(Snapshot.BLOCK_RECORDS);
+            header.putInt(blocks);
+            header.putLong(indexOffset);
+            writeFully(channel, header, 0);
+        }
+    }
+
+    static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        buffer.flip();
+        int written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, position + written);
+        }
+        buffer.clear();
+        return written;
+    }
+}
@@ -0,0 +1,141 @@
+package service;
+
+import com.google.common.base.Splitter;
+import index.GeoHashCodec;
+import index.GeoHashEncoder;
+import index.KeyEncoder;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.*;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+public class TemporalBench {
+
+    static final byte[] FAMILY = "a".getBytes();
+    static final TableName FLAT = TableName.valueOf("temporal_flat");
+    static final TableName BUCKETED = TableName.valueOf("temporal_bucketed");
+    static final long DAY_MILLIS = 24 * TimeBuckets.HOUR_MILLIS;
+    static final long EPOCH = 1577836800000L;
+
+    private static final String usage =
+            "service.TemporalBench source.csv days\n" +
+            "  help - print this message and exit.\n" +
+            "  source.csv - the points to replicate.\n" +
+            "  days - the number of days of observations to generate.\n" +
+            "\n" +
+            "observes every source point once a day, with jitter, for the given number\n" +
+            "of days starting 2020-01-01. the data is loaded into 'temporal_flat', keyed\n" +
+            "by geohash, and 'temporal_bucketed', keyed by day bucket and geohash. KNN\n" +
+            "and within queries over a one-day window then report rows scanned on each.";
+
+    private static final Splitter SPLITTER = Splitter.on(',').trimResults().limit(3);
+
+    static List<double[]> points(String path) throws IOException {
+        List<double[]> ret = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new FileReader(path));
+        String line = reader.readLine();
+        while ((line = reader.readLine()) != null) {
+            Iterator<String> vals = SPLITTER.split(line).iterator();
+            ret.add(new double[] { Double.parseDouble(vals.next()), Double.parseDouble(vals.next()) });
+        }
+        reader.close();
+        return ret;
+    }
+
+    static void load(Connection connection, List<double[]> points, int days) throws IOException {
+        Schema schema = new Schema(connection);
+        try (Admin admin = connection.getAdmin()) {
+            for (TableName table: new TableName[] { FLAT, BUCKETED }) {
+                if (admin.tableExists(table)) {
+                    admin.disableTable(table);
+                    admin.deleteTable(table);
+                }
+                schema.create(table, Schema.Profile.DEFAULT);
+            }
+        }
+
+        Random random = new Random(42);
+        BufferedMutator flat = connection.getBufferedMutator(FLAT);
+        BufferedMutator bucketed = connection.getBufferedMutator(BUCKETED);
+        int id = 0;
+        for (int day = 0; day < days; day++) {
+            for (double[] point: points) {
+                double lon = point[0] + (random.nextDouble() - 0.5) * 0.001;
+                double lat = point[1] + (random.nextDouble() - 0.5) * 0.001;
+                long ts = EPOCH + day * DAY_MILLIS + (long) (random.nextDouble() * DAY_MILLIS);
+                String hash = GeoHashCodec.toBase32(GeoHashCodec.encode(lon, lat, 12), 12);
+                flat.mutate(observation(hash, lon, lat, id, ts));
+                bucketed.mutate(observation(TimeBuckets.key(ts, DAY_MILLIS) + hash, lon, lat, id, ts));
+                id++;
+            }
+        }
+        flat.close();
+        bucketed.close();
+        System.out.println(String.format("Loaded %s observations over %s days.", id, days));
+    }
+
+    static Put observation(String rowkey, double lon, double lat, int id, long ts) {
+        Put put = new Put(rowkey.getBytes());
+        put.addColumn(FAMILY, "lon".getBytes(), Double.toString(lon).getBytes());
+        put.addColumn(FAMILY, "lat".getBytes(), Double.toString(lat).getBytes());
+        put.addColumn(FAMILY, "id".getBytes(), Integer.toString(id).getBytes());
+        put.addColumn(FAMILY, TimeBuckets.TS_COL, Long.toString(ts).getBytes());
+        return put;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println(usage);
+            System.exit(0);
+        }
+
+        List<double[]> points = points(args[0]);
+        int days = Integer.parseInt(args[1]);
+
+        Connection connection = ConnectionFactory.createConnection();
+        load(connection, points, days);
+
+        long from = EPOCH + (days / 2) * DAY_MILLIS;
+        long to = from + DAY_MILLIS;
+        GeometryFactory factory = new GeometryFactory();
+        KeyEncoder encoder = new GeoHashEncoder();
+        KNNQuery flatKnn = new KNNQuery(connection, FLAT, encoder, 0, null);
+        KNNQuery bucketedKnn = new KNNQuery(connection, BUCKETED, encoder, DAY_MILLIS, null);
+        WithinQuery flatWithin = new WithinQuery(connection, FLAT, encoder, 0, null, 0);
+        WithinQuery bucketedWithin = new WithinQuery(connection, BUCKETED, encoder, DAY_MILLIS, null, 0);
+
+        int queries = 0;
+        int mismatches = 0;
+        for (int i = 0; i < points.size(); i += Math.max(1, points.size() / 20)) {
+            double[] point = points.get(i);
+            int flatCount = flatKnn.queryKNN(point[0], point[1], 10, from, to).size();
+            int bucketedCount = bucketedKnn.queryKNN(point[0], point[1], 10, from, to).size();
+            Geometry box = factory.toGeometry(new Envelope(point[0] - 0.005, point[0] + 0.005,
+                    point[1] - 0.005, point[1] + 0.005));
+            flatCount += flatWithin.query(box, from, to).size();
+            bucketedCount += bucketedWithin.query(box, from, to).size();
+            if (flatCount != bucketedCount) {
+                mismatches++;
+            }
+            queries++;
+        }
+
+        System.out.println(String.format("%s query pairs over a 1 of %s day window, %s with differing results.",
+                queries, days, mismatches));
+        System.out.println(String.format("KNN:    flat scanned %s rows, bucketed scanned %s rows.",
+                flatKnn.scanned, bucketedKnn.scanned));
+        System.out.println(String.format("Within: flat scanned %s rows, bucketed scanned %s rows.",
+                flatWithin.scanned, bucketedWithin.scanned));
+
+        connection.close();
+    }
+}
@@ -0,0 +1,68 @@
+package service;
+
+import index.KeyRange;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Rowkey helpers for time-bucketed tables, where each spatial rowkey is
+ * preceded by a fixed-width decimal bucket number: floor(ts / bucketMillis).
+ * A bucket width of 0 denotes a table keyed by position alone.
+ */
+final class TimeBuckets {
+
+    static final byte[] TS_COL = "ts".getBytes();
+    static final int KEY_LENGTH = 8;
+    static final long HOUR_MILLIS = 60 * 60 * 1000L;
+
+    private TimeBuckets() {}
+
+    static String key(long time, long bucketMillis) {
+        return String.format("%0" + KEY_LENGTH + "d", Math.floorDiv(time, bucketMillis));
+    }
+
+    static boolean unbounded(long from, long to) {
+        return from == Long.MIN_VALUE && to == Long.MAX_VALUE;
+    }
+
+    /**
+     * Expands a key range into the rowkey ranges to scan for the time window
+     * [from, to), one per bucket overlapping the window.
+     */
+    static List<byte[][]> ranges(KeyRange range, long from, long to, long bucketMillis) {
+        if (bucketMillis == 0) {
+            return Collections.singletonList(new byte[][] { range.start, range.stop });
+        }
+        if (from == Long.MIN_VALUE || to == Long.MAX_VALUE) {
+            throw new IllegalArgumentException("Time-bucketed tables need a bounded time window.");
+        }
+        List<byte[][]> ret = new ArrayList<>();
+        for (long bucket = Math.floorDiv(from, bucketMillis); bucket <= Math.floorDiv(to - 1, bucketMillis); bucket++) {
+            byte[] key = key(bucket * bucketMillis, bucketMillis).getBytes();
+            ret.add(new byte[][] { Bytes.add(key, range.start), Bytes.add(key, range.stop) });
+        }
+        return ret;
+    }
+
+    static boolean inWindow(Result result, byte[] family, long from, long to) {
+        if (unbounded(from, to)) {
+            return true;
+        }
+        byte[] value = result.getValue(family, TS_COL);
+        if (value == null) {
+            return false;
+        }
+        long time = Long.parseLong(new String(value));
+        return from <= time && time < to;
+    }
+
+    /** the spatial part of a rowkey. */
+    static String hash(byte[] row, long bucketMillis) {
+        String key = new String(row);
+        return bucketMillis == 0 ? key : key.substring(KEY_LENGTH);
+    }
+}
@@ -0,0 +1,382 @@
+package service;
+
+import com.google.common.base.Splitter;
+import index.GeoHashEncoder;
+import index.KeyEncoder;
+import model.QueryMatch;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.*;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.FirstKeyOnlyFilter;
+import org.apache.hadoop.hbase.filter.KeyOnlyFilter;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.*;
+
+public class Tracker implements Closeable {
+
+    static final byte[] TABLE = "wifi".getBytes();
+    static final byte[] INDEX_TABLE = "wifi_idx".getBytes();
+    static final byte[] FAMILY = "a".getBytes();
+    static final byte[] ID = "id".getBytes();
+    static final byte[] X_COL = "lon".getBytes();
+    static final byte[] Y_COL = "lat".getBytes();
+    static final byte[] ROW = "row".getBytes();
+
+    static final int BATCH_SIZE = 1000;
+
+    private static final String usage =
+            "service.Tracker [-encoder geohash|hilbert] update source.csv | get id | reindex | bench objects updates\n" +
+            "  help - print this message and exit.\n" +
+            "  -encoder - the rowkey encoding 'wifi' was loaded with, geohash by default.\n" +
+            "  update - move the objects in source.csv (lon,lat,id) to their new positions.\n" +
+            "  get - look up the current position of the object with the given id.\n" +
+            "  reindex - index the rows of 'wifi' that have no 'wifi_idx' entry, such as\n" +
+            "            rows loaded by Ingest, and delete rows of ids already indexed\n" +
+            "            at another row. run once after each Ingest into 'wifi'.\n" +
+            "  bench - random-walk the given number of objects and report update throughput.\n" +
+            "\n" +
+            "positions are kept in 'wifi' under their finest cell; 'wifi_idx' maps each\n" +
+            "id to its current rowkey and position so relocations can drop the stale row.\n" +
+            "objects at the same position share a row, which holds the last one written.\n" +
+            "'wifi' must be keyed by the encoder's cells alone, not time buckets.\n" +
+            "when 'wifi_counts' exists its prefix counts are moved along with the rows.";
+
+    private static final Splitter SPLITTER = Splitter.on(',').trimResults().limit(3);
+
+    final Connection connection;
+    final KeyEncoder encoder;
+    final BufferedMutator points;
+    final BufferedMutator index;
+    /** the prefix counts of 'wifi', or null when it has none. */
+    final CountPyramid counts;
+
+    public Tracker(Connection connection) throws IOException {
+        this(connection, new GeoHashEncoder());
+    }
+
+    /**
+     * @param encoder the rowkey encoding 'wifi' was loaded with.
+     * @throws IOException when 'wifi' holds rows that are not the encoder's
+     *                     finest cells, such as time bucketed rows.
+     */
+    public Tracker(Connection connection, KeyEncoder encoder) throws IOException {
+        this.connection = connection;
+        this.encoder = encoder;
+        checkKeys(connection, encoder);
+        this.points = connection.getBufferedMutator(TableName.valueOf(TABLE));
+        this.index = connection.getBufferedMutator(TableName.valueOf(INDEX_TABLE));
+        try (Admin admin = connection.getAdmin()) {
+            boolean counted = admin.tableExists(CountPyramid.countsTable(TableName.valueOf(TABLE)));
+            this.counts = counted ? new CountPyramid(connection, TableName.valueOf(TABLE)) : null;
+        }
+    }
+
+    static void checkKeys(Connection connection, KeyEncoder encoder) throws IOException {
+        Scan scan = new Scan().setFilter(new FilterList(new FirstKeyOnlyFilter(), new KeyOnlyFilter())).setLimit(1);
+        try (Table table = connection.getTable(TableName.valueOf(TABLE)); ResultScanner scanner = table.getScanner(scan)) {
+            Result first = scanner.next();
+            if (first != null && first.getRow().length != encoder.maxLevel()) {
+                throw new IOException(String.format("%s has %s byte rowkeys, not %s cells; Tracker cannot maintain it.",
+                        new String(TABLE), first.getRow().length, encoder.name()));
+            }
+        }
+    }
+
+    /**
+     * Moves each object to its new position. Current rowkeys are read from the
+     * index in one batch, stale rows are deleted and the new rows and index
+     * entries are written through the buffered mutators, which are flushed
+     * before returning so later batches see these positions. Objects at the
+     * same position share a row, so an old row is only deleted while its id
+     * column still names the object. Prefix counts lose each deleted row and
+     * gain each written row that did not exist.
+     */
+    public void upsert(Collection<QueryMatch> updates) throws IOException {
+        Map<String, QueryMatch> latest = new LinkedHashMap<>(updates.size());
+        for (QueryMatch update: updates) {
+            update.hash = encoder.encode(update.lon, update.lat, encoder.maxLevel());
+            latest.put(update.id, update);
+        }
+
+        List<Get> gets = new ArrayList<>(latest.size());
+        for (String id: latest.keySet()) {
+            gets.add(new Get(id.getBytes()).addColumn(FAMILY, ROW));
+        }
+        Result[] current;
+        try (Table table = connection.getTable(TableName.valueOf(INDEX_TABLE))) {
+            current = table.get(gets);
+        }
+
+        Set<String> written = new HashSet<>(latest.size());
+        for (QueryMatch update: latest.values()) {
+            written.add(update.hash);
+        }
+        // the ids now held by the old and new rows, read in one batch.
+        Set<String> touched = new LinkedHashSet<>(written);
+        for (Result result: current) {
+            byte[] old = result.getValue(FAMILY, ROW);
+            if (old != null) {
+                touched.add(new String(old));
+            }
+        }
+        Map<String, String> owners = new HashMap<>(touched.size());
+        List<Get> rowGets = new ArrayList<>(touched.size());
+        for (String row: touched) {
+            rowGets.add(new Get(row.getBytes()).addColumn(FAMILY, ID));
+        }
+        try (Table table = connection.getTable(TableName.valueOf(TABLE))) {
+            for (Result result: table.get(rowGets)) {
+                if (!result.isEmpty()) {
+                    owners.put(new String(result.getRow()), new String(result.getValue(FAMILY, ID)));
+                }
+            }
+        }
+
+        List<Mutation> rows = new ArrayList<>(latest.size() * 2);
+        List<Mutation> entries = new ArrayList<>(latest.size());
+        Set<String> deleted = new HashSet<>();
+        int i = 0;
+        for (QueryMatch update: latest.values()) {
+            byte[] old = current[i++].getValue(FAMILY, ROW);
+            String oldRow = old == null ? null : new String(old);
+            // a row rewritten in this batch must not also be deleted, or the
+            // delete marker could mask the new put; a row another object has
+            // since taken over is left to it.
+            if (oldRow != null && !written.contains(oldRow) && update.id.equals(owners.get(oldRow))
+                    && deleted.add(oldRow)) {
+                rows.add(new Delete(old));
+            }
+            byte[] lon = Double.toString(update.lon).getBytes();
+            byte[] lat = Double.toString(update.lat).getBytes();
+            Put put = new Put(update.hash.getBytes());
+            put.addColumn(FAMILY, X_COL, lon);
+            put.addColumn(FAMILY, Y_COL, lat);
+            put.addColumn(FAMILY, ID, update.id.getBytes());
+            rows.add(put);
+
+            Put entry = new Put(update.id.getBytes());
+            entry.addColumn(FAMILY, ROW, update.hash.getBytes());
+            entry.addColumn(FAMILY, X_COL, lon);
+            entry.addColumn(FAMILY, Y_COL, lat);
+            entries.add(entry);
+        }
+
+        points.mutate(rows);
+        index.mutate(entries);
+        points.flush();
+        index.flush();
+
+        if (counts != null) {
+            for (String row: deleted) {
+                counts.add(row, -1);
+            }
+            for (String row: written) {
+                if (!owners.containsKey(row)) {
+                    counts.add(row, 1);
+                }
+            }
+            counts.flush();
+        }
+    }
+
+    /**
+     * Backfills the index from 'wifi'. Rows whose id has no index entry are
+     * indexed; rows whose id is already indexed at another row are stale
+     * copies and are deleted. Returns the number of rows indexed and deleted.
+     */
+    public long[] reindex() throws IOException {
+        Scan scan = new Scan().addColumn(FAMILY, ID).addColumn(FAMILY, X_COL).addColumn(FAMILY, Y_COL);
+        scan.setCaching(BATCH_SIZE);
+        scan.setCacheBlocks(false);
+        long[] ret = new long[2];
+        List<Result> batch = new ArrayList<>(BATCH_SIZE);
+        try (Table table = connection.getTable(TableName.valueOf(TABLE)); ResultScanner scanner = table.getScanner(scan)) {
+            for (Result result: scanner) {
+                batch.add(result);
+                if (batch.size() == BATCH_SIZE) {
+                    reindex(batch, ret);
+                    batch.clear();
+                }
+            }
+        }
+        reindex(batch, ret);
+        if (counts != null) {
+            counts.flush();
+        }
+        return ret;
+    }
+
+    void reindex(List<Result> batch, long[] ret) throws IOException {
+        Map<String, byte[]> indexed = new HashMap<>(batch.size());
+        List<Get> gets = new ArrayList<>(batch.size());
+        for (Result result: batch) {
+            String id = new String(result.getValue(FAMILY, ID));
+            if (!indexed.containsKey(id)) {
+                indexed.put(id, null);
+                gets.add(new Get(id.getBytes()).addColumn(FAMILY, ROW));
+            }
+        }
+        try (Table table = connection.getTable(TableName.valueOf(INDEX_TABLE))) {
+            for (Result result: table.get(gets)) {
+                if (!result.isEmpty()) {
+                    indexed.put(new String(result.getRow()), result.getValue(FAMILY, ROW));
+                }
+            }
+        }
+
+        List<Mutation> rows = new ArrayList<>();
+        List<Mutation> entries = new ArrayList<>();
+        for (Result result: batch) {
+            String id = new String(result.getValue(FAMILY, ID));
+            byte[] row = indexed.get(id);
+            if (row == null) {
+                Put entry = new Put(id.getBytes());
+                entry.addColumn(FAMILY, ROW, result.getRow());
+                entry.addColumn(FAMILY, X_COL, result.getValue(FAMILY, X_COL));
+                entry.addColumn(FAMILY, Y_COL, result.getValue(FAMILY, Y_COL));
+                entries.add(entry);
+                indexed.put(id, result.getRow());
+                ret[0]++;
+            } else if (!Arrays.equals(row, result.getRow())) {
+                rows.add(new Delete(result.getRow()));
+                if (counts != null) {
+                    counts.add(new String(result.getRow()), -1);
+                }
+                ret[1]++;
+            }
+        }
+        points.mutate(rows);
+        index.mutate(entries);
+        points.flush();
+        index.flush();
+    }
+
+    /**
+     * Returns the current position of the object, served from the index row
+     * alone, or null when the id is unknown.
+     */
+    public QueryMatch get(String id) throws IOException {
+        Result result;
+        try (Table table = connection.getTable(TableName.valueOf(INDEX_TABLE))) {
+            result = table.get(new Get(id.getBytes()).addFamily(FAMILY));
+        }
+        if (result.isEmpty()) {
+            return null;
+        }
+        String hash = new String(result.getValue(FAMILY, ROW));
+        double lon = Double.parseDouble(new String(result.getValue(FAMILY, X_COL)));
+        double lat = Double.parseDouble(new String(result.getValue(FAMILY, Y_COL)));
+        return new QueryMatch(id, hash, lon, lat);
+    }
+
+    @Override
+    public void close() throws IOException {
+        points.close();
+        index.close();
+    }
+
+    static void update(Tracker tracker, String path) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(path));
+        String line = reader.readLine();
+        List<QueryMatch> batch = new ArrayList<>(BATCH_SIZE);
+        int records = 0;
+        long start = System.currentTimeMillis();
+
+        while ((line = reader.readLine()) != null) {
+            Iterator<String> vals = SPLITTER.split(line).iterator();
+            double lon = Double.parseDouble(vals.next());
+            double lat = Double.parseDouble(vals.next());
+            batch.add(new QueryMatch(vals.next(), null, lon, lat));
+            if (batch.size() == BATCH_SIZE) {
+                tracker.upsert(batch);
+                records += batch.size();
+                batch.clear();
+            }
+        }
+        tracker.upsert(batch);
+        records += batch.size();
+        reader.close();
+
+        long end = System.currentTimeMillis();
+        System.out.println(String.format("Updated %s records in %sms.", records, end - start));
+    }
+
+    /**
+     * Streams random-walk moves for the given number of objects around the
+     * area covered by source.csv, reporting throughput every ten batches.
+     */
+    static void bench(Tracker tracker, int objects, int updates) throws IOException {
+        Random random = new Random(42);
+        double[] lons = new double[objects];
+        double[] lats = new double[objects];
+        for (int i = 0; i < objects; i++) {
+            lons[i] = -74.05 + random.nextDouble() * 0.3;
+            lats[i] = 40.6 + random.nextDouble() * 0.3;
+        }
+
+        List<QueryMatch> batch = new ArrayList<>(BATCH_SIZE);
+        long start = System.currentTimeMillis();
+        long windowStart = start;
+        int batches = 0;
+        for (int n = 0; n < updates; n++) {
+            int i = random.nextInt(objects);
+            lons[i] += (random.nextDouble() - 0.5) * 0.001;
+            lats[i] += (random.nextDouble() - 0.5) * 0.001;
+            batch.add(new QueryMatch(Integer.toString(i), null, lons[i], lats[i]));
+            if (batch.size() == BATCH_SIZE || n == updates - 1) {
+                tracker.upsert(batch);
+                batch.clear();
+                if (++batches % 10 == 0) {
+                    long now = System.currentTimeMillis();
+                    System.out.println(String.format("%s updates, %.0f updates/s over the last 10 batches.",
+                            n + 1, 10.0 * BATCH_SIZE * 1000 / Math.max(1, now - windowStart)));
+                    windowStart = now;
+                }
+            }
+        }
+
+        long end = System.currentTimeMillis();
+        System.out.println(String.format("Applied %s updates to %s objects in %sms (%.0f updates/s).",
+                updates, objects, end - start, updates * 1000.0 / Math.max(1, end - start)));
+    }
+
+    public static void main(String[] args) throws IOException {
+        KeyEncoder encoder = new GeoHashEncoder();
+        if (args.length > 1 && "-encoder".equals(args[0])) {
+            encoder = KeyEncoder.forName(args[1]);
+            args = Arrays.copyOfRange(args, 2, args.length);
+        }
+        if (args.length < 1
+                || ("update".equals(args[0]) && args.length != 2)
+                || ("get".equals(args[0]) && args.length != 2)
+                || ("reindex".equals(args[0]) && args.length != 1)
+                || ("bench".equals(args[0]) && args.length != 3)
+                || !Arrays.asList("update", "get", "reindex", "bench").contains(args[0])) {
+            System.out.println(usage);
+            System.exit(0);
+        }
+
+        Connection connection = ConnectionFactory.createConnection();
+        Tracker tracker = new Tracker(connection, encoder);
+        if ("update".equals(args[0])) {
+            update(tracker, args[1]);
+        } else if ("get".equals(args[0])) {
+            System.out.println(tracker.get(args[1]));
+        } else if ("reindex".equals(args[0])) {
+            long start = System.currentTimeMillis();
+            long[] counts = tracker.reindex();
+            long end = System.currentTimeMillis();
+            System.out.println(String.format("Indexed %s rows and deleted %s stale rows in %sms.",
+                    counts[0], counts[1], end - start));
+        } else {
+            bench(tracker, Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+        }
+
+        tracker.close();
+        connection.close();
+    }
+}
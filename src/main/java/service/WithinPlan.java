@@ -0,0 +1,156 @@
+package service;
+
+import filter.RasterGrid;
+import index.KeyRange;
+import org.locationtech.jts.geom.Geometry;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * One way of running a within query, with the planner's estimates and, once
+ * executed, the actual row counts and phase timings.
+ *
+ * Costs are rough microseconds. The local strategy checks rows against the
+ * plain query geometry, linear in its vertex count; WithinFilter and the cover
+ * strategy check against a prepared geometry, close to logarithmic once its
+ * edge index is built. With a raster resolution every strategy tests against
+ * a RasterGrid instead: building it classifies every tile, and afterwards
+ * only rows in boundary tiles, roughly 3 in resolution of them, pay for an
+ * exact test.
+ */
+public class WithinPlan {
+
+    public enum Strategy {
+        /** scan the bounding cells and check every row on the client. */
+        LOCAL,
+        /** scan the bounding cells and check every row in WithinFilter. */
+        REMOTE,
+        /** scan finer cells meeting the query and check only rows in boundary cells. */
+        COVER
+    }
+
+    /** opening a scanner: region lookup and the first RPC. */
+    static final double RANGE_COST = 500;
+    /** shipping a row to the client and decoding it. */
+    static final double ROW_COST = 5;
+    /** reading a row and parsing its columns inside the filter. */
+    static final double SERVER_ROW_COST = 1;
+    /** a point in polygon test, before its vertex term. */
+    static final double CHECK_COST = 0.2;
+    static final double VERTEX_COST = 0.02;
+    /** deserializing the WKT query once per scanner, per vertex. */
+    static final double FILTER_VERTEX_COST = 0.2;
+    /** indexing the edges of a prepared geometry, per vertex. */
+    static final double PREPARE_VERTEX_COST = 0.5;
+    /** marking one raster tile, including the flood fill's centre tests. */
+    static final double TILE_COST = 0.01;
+
+    final Strategy strategy;
+    final Geometry query;
+    final int level;
+    final List<KeyRange> ranges;
+    final Set<String> interior;
+    final long estimatedRows;
+    final long estimatedMatches;
+    final double cost;
+
+    long planNanos;
+    long scanNanos;
+    long checkNanos;
+    long scanned = -1;
+    long matched = -1;
+
+    WithinPlan(Strategy strategy, Geometry query, int level, List<KeyRange> ranges, Set<String> interior,
+               long estimatedRows, long estimatedMatches, double cost) {
+        this.strategy = strategy;
+        this.query = query;
+        this.level = level;
+        this.ranges = ranges;
+        this.interior = interior;
+        this.estimatedRows = estimatedRows;
+        this.estimatedMatches = estimatedMatches;
+        this.cost = cost;
+    }
+
+    /**
+     * The one-off cost of building what the checks test against: nothing for
+     * the plain geometry, the edge index for a prepared one, and that plus
+     * the tiles for a raster.
+     */
+    static double setup(Geometry query, int resolution, boolean prepared) {
+        int vertices = query.getNumPoints();
+        if (resolution > 0) {
+            long tiles = Math.min((long) resolution * resolution, RasterGrid.MAX_TILES);
+            return PREPARE_VERTEX_COST * vertices + TILE_COST * tiles;
+        }
+        return prepared ? PREPARE_VERTEX_COST * vertices : 0;
+    }
+
+    /** the cost of checking one row once the setup is paid. */
+    static double check(Geometry query, int resolution, boolean prepared) {
+        int vertices = query.getNumPoints();
+        double exact = CHECK_COST + VERTEX_COST * (prepared || resolution > 0
+                ? Math.log(vertices + 1) / Math.log(2) : vertices);
+        if (resolution > 0) {
+            return CHECK_COST + Math.min(1, 3.0 / resolution) * exact;
+        }
+        return exact;
+    }
+
+    static WithinPlan local(Geometry query, int resolution, int level, List<KeyRange> ranges, long rows,
+                            long matches) {
+        double cost = ranges.size() * RANGE_COST
+                + setup(query, resolution, false)
+                + rows * (ROW_COST + check(query, resolution, false));
+        return new WithinPlan(Strategy.LOCAL, query, level, ranges, Collections.<String>emptySet(), rows, matches, cost);
+    }
+
+    static WithinPlan remote(Geometry query, int resolution, int level, List<KeyRange> ranges, long rows,
+                             long matches) {
+        // every scanner deserializes its own filter and builds its own index.
+        double cost = ranges.size() * (RANGE_COST + FILTER_VERTEX_COST * query.getNumPoints()
+                        + setup(query, resolution, true))
+                + rows * (SERVER_ROW_COST + check(query, resolution, true))
+                + matches * ROW_COST;
+        return new WithinPlan(Strategy.REMOTE, query, level, ranges, Collections.<String>emptySet(), rows, matches, cost);
+    }
+
+    static WithinPlan cover(Geometry query, int resolution, int level, List<KeyRange> ranges, Set<String> interior,
+                            long rows, long boundaryRows, long matches) {
+        double cost = ranges.size() * RANGE_COST
+                + setup(query, resolution, true)
+                + rows * ROW_COST
+                + boundaryRows * check(query, resolution, true);
+        return new WithinPlan(Strategy.COVER, query, level, ranges, interior, rows, matches, cost);
+    }
+
+    boolean executed() {
+        return scanned >= 0;
+    }
+
+    /**
+     * Describes the plan: the key ranges it scans, its estimates and, once
+     * executed, what actually happened.
+     */
+    String explain() {
+        StringBuilder ret = new StringBuilder();
+        ret.append(String.format("%s at level %s, %s key ranges, %s interior cells:%n",
+                strategy.name().toLowerCase(), level, ranges.size(), interior.size()));
+        for (KeyRange range: ranges) {
+            ret.append("  ").append(range).append(String.format("%n"));
+        }
+        ret.append(String.format("rows:    estimated %s, actual %s%n", estimatedRows, executed() ? scanned : "-"));
+        ret.append(String.format("matches: estimated %s, actual %s%n", estimatedMatches, executed() ? matched : "-"));
+        ret.append(String.format("time:    plan %.3fms, scan %.3fms, check %.3fms",
+                planNanos / 1e6, scanNanos / 1e6, checkNanos / 1e6));
+        return ret.toString();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%-7s level %2s, %4s ranges, est %s rows, %s matches, cost %.0f",
+                strategy.name().toLowerCase(), level, ranges.size(), estimatedRows, estimatedMatches, cost);
+    }
+}
@@ -1,26 +1,27 @@
 package service;
 
-import ch.hsr.geohash.BoundingBox;
-import ch.hsr.geohash.GeoHash;
+import filter.RasterGrid;
 import filter.WithinFilter;
+import index.GeoHashEncoder;
+import index.KeyEncoder;
+import index.KeyRange;
 import model.QueryMatch;
 import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.client.*;
 import org.apache.hadoop.hbase.filter.Filter;
-import org.apache.hadoop.hbase.filter.FilterList;
-import org.apache.hadoop.hbase.filter.PrefixFilter;
 import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
 import org.locationtech.jts.io.ParseException;
 import org.locationtech.jts.io.WKTReader;
 
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Set;
+import java.nio.ByteBuffer;
+import java.util.*;
 
 public class WithinQuery {
 
@@ -31,125 +32,455 @@ public class WithinQuery {
     static final byte[] Y_COL = "lat".getBytes();
 
     private static final String usage =
-            "service.WithinQuery local|remote wkt\n" +
+            "service.WithinQuery [-encoder geohash|hilbert] [-raster tiles] [-page size [-cursor token]]\n" +
+            "                    local|remote|auto|explain|page wkt [table from to bucket-hours]\n" +
             "  help - print this message and exit.\n" +
+            "  -encoder - the rowkey encoding the table was loaded with, geohash by default.\n" +
+            "  -raster - test points against a grid of this many tiles along the query's\n" +
+            "            longer side, with exact tests only near its boundary.\n" +
             "  local | remote - run the exclusion filter client-side or in the filter.\n" +
-            "  wkt - the query geometry in Well-Known Text format.";
+            "  auto - let the planner pick local, remote or a finer cell cover by\n" +
+            "         estimated cost.\n" +
+            "  explain - as auto, then print every costed plan and the chosen plan's\n" +
+            "            key ranges, estimated and actual rows and phase timings.\n" +
+            "  page - return one page of matches, checked in the filter, and the cursor\n" +
+            "         for the next page.\n" +
+            "  -page - the page size for page mode, 1000 by default.\n" +
+            "  -cursor - resume the query where the page that returned token ended.\n" +
+            "  wkt - the query geometry in Well-Known Text format.\n" +
+            "  table - the table to query, 'wifi' by default.\n" +
+            "  from, to - restrict to observations with from <= ts < to, epoch millis.\n" +
+            "  bucket-hours - the table's time bucket width, 0 if it is not bucketed.";
+
+    static final byte CURSOR_VERSION = 1;
+    static final int MAX_COVER_LEVELS = 3;
+    static final int MAX_COVER_CELLS = 1024;
 
     final GeometryFactory factory = new GeometryFactory();
     final Connection connection;
+    final TableName table;
+    final KeyEncoder encoder;
+    final long bucketMillis;
+    final DensityStats stats;
+    final int resolution;
+    long scanned = 0;
+    long ranges = 0;
 
-    public WithinQuery(Connection connection) {
+    /**
+     * @param encoder the rowkey encoding the table was loaded with.
+     * @param bucketMillis the time bucket width the table was loaded with, or 0
+     *                     for a table keyed by cell alone.
+     * @param stats prefix counts used to size scanner caching per prefix, or null.
+     * @param resolution tiles of the raster pre-test along the query's longer
+     *                   side, or 0 to test every point exactly.
+     */
+    public WithinQuery(Connection connection, TableName table, KeyEncoder encoder, long bucketMillis,
+                       DensityStats stats, int resolution) {
         this.connection = connection;
+        this.table = table;
+        this.encoder = encoder;
+        this.bucketMillis = bucketMillis;
+        this.stats = stats;
+        this.resolution = resolution;
     }
 
-    Set<Coordinate> getCoords(GeoHash hash) {
-        BoundingBox boundingBox = hash.getBoundingBox();
-        Set<Coordinate> coordinates = new HashSet<Coordinate>(4);
-        coordinates.add(new Coordinate(boundingBox.getMinLon(), boundingBox.getMinLat()));
-        coordinates.add(new Coordinate(boundingBox.getMinLon(), boundingBox.getMaxLat()));
-        coordinates.add(new Coordinate(boundingBox.getMaxLon(), boundingBox.getMinLat()));
-        coordinates.add(new Coordinate(boundingBox.getMaxLon(), boundingBox.getMaxLat()));
-        return coordinates;
-    }
-
-    Geometry convexHull(GeoHash[] hashes) {
-        Set<Coordinate> coordinates = new HashSet<Coordinate>();
-        for (GeoHash hash: hashes) {
-            coordinates.addAll(getCoords(hash));
-        }
-        GeometryFactory factory = new GeometryFactory();
-        Geometry geometry = factory.createMultiPoint(coordinates.toArray(new Coordinate[0]));
-        return geometry.convexHull();
+    String[] minimumBoundingPrefixes(Geometry query) {
+        return minimumBoundingPrefixes(encoder, query);
     }
 
-    GeoHash[] minimumBoundingPrefixes(Geometry query) {
-        GeoHash candidate;
-        Geometry candidateGeom;
+    /**
+     * Returns the cell of the query's centroid, or that cell and its
+     * neighbours, at the finest level from the encoder's default down whose
+     * cells contain the query.
+     */
+    static String[] minimumBoundingPrefixes(KeyEncoder encoder, Geometry query) {
+        // cells are axis-aligned rectangles, so containing the query's
+        // envelope is containing the query; no cell geometry is built.
+        Envelope envelope = query.getEnvelopeInternal();
         Point queryCenter = query.getCentroid();
-        for (int precision = 7; precision > 0; precision--) {
-            candidate = GeoHash.withCharacterPrecision(queryCenter.getY(), queryCenter.getX(), precision);
-            candidateGeom = convexHull(new GeoHash[]{ candidate });
-            if (candidateGeom.contains(query)) {
-                return new GeoHash[]{ candidate };
+        long[] adjacent = new long[8];
+        double[] bounds = new double[4];
+        double[] block = new double[4];
+        for (int precision = encoder.defaultLevel(); precision > 0; precision--) {
+            long candidate = encoder.cell(queryCenter.getX(), queryCenter.getY(), precision);
+            encoder.bounds(candidate, precision, block);
+            if (KeyEncoder.covers(block, envelope.getMinX(), envelope.getMinY(), envelope.getMaxX(), envelope.getMaxY())) {
+                return new String[]{ encoder.key(candidate, precision) };
+            }
+            int count = encoder.adjacent(candidate, precision, adjacent);
+            for (int i = 0; i < count; i++) {
+                encoder.bounds(adjacent[i], precision, bounds);
+                block[0] = Math.min(block[0], bounds[0]);
+                block[1] = Math.min(block[1], bounds[1]);
+                block[2] = Math.max(block[2], bounds[2]);
+                block[3] = Math.max(block[3], bounds[3]);
             }
-            candidateGeom = convexHull(candidate.getAdjacent());
-            if (candidateGeom.contains(query)) {
-                GeoHash[] ret = Arrays.copyOf(candidate.getAdjacent(), 9);
-                ret[8] = candidate;
+            if (KeyEncoder.covers(block, envelope.getMinX(), envelope.getMinY(), envelope.getMaxX(), envelope.getMaxY())) {
+                String[] ret = new String[count + 1];
+                for (int i = 0; i < count; i++) {
+                    ret[i] = encoder.key(adjacent[i], precision);
+                }
+                ret[count] = encoder.key(candidate, precision);
                 return ret;
             }
         }
-        throw new IllegalArgumentException("Geometry cannot be contained by GeoHashs");
+        throw new IllegalArgumentException("Geometry cannot be contained by " + encoder.name() + " cells");
     }
 
-    public Set<QueryMatch> query(Geometry query) throws IOException {
-        GeoHash[] prefixes = minimumBoundingPrefixes(query);
-        Set<QueryMatch> ret = new HashSet<>();
-        Table table = connection.getTable(TableName.valueOf(TABLE));
-
-        for (GeoHash prefix: prefixes) {
-            byte[] p = prefix.toBase32().getBytes();
-            Scan scan = new Scan().withStartRow(p);
-            scan.setFilter(new PrefixFilter(p));
+    void scan(Table table, KeyRange range, Filter filter, long from, long to, Set<QueryMatch> ret)
+            throws IOException {
+        int caching = DensityStats.caching(stats, encoder, range);
+        for (byte[][] keys: TimeBuckets.ranges(range, from, to, bucketMillis)) {
+            Scan scan = new Scan().withStartRow(keys[0]).withStopRow(keys[1]);
+            if (filter != null) {
+                scan.setFilter(filter);
+            }
             scan.addFamily(FAMILY);
             scan.readVersions(1);
-            scan.setCaching(50);
+            scan.setCaching(caching);
 
             ResultScanner scanner = table.getScanner(scan);
+            ranges++;
             for (Result result: scanner) {
-                String hash = new String(result.getRow());
+                scanned++;
+                if (!TimeBuckets.inWindow(result, FAMILY, from, to)) {
+                    continue;
+                }
+                String hash = TimeBuckets.hash(result.getRow(), bucketMillis);
                 String id = new String(result.getValue(FAMILY, ID));
                 String lon = new String(result.getValue(FAMILY, X_COL));
                 String lat = new String(result.getValue(FAMILY, Y_COL));
                 ret.add(new QueryMatch(id, hash, Double.parseDouble(lon), Double.parseDouble(lat)));
             }
+            scanner.close();
+        }
+    }
+
+    /**
+     * Estimates the rows under the cells from the density stats or, without
+     * them, as one row per default level cell of area.
+     */
+    long estimate(Collection<String> cells) throws IOException {
+        if (stats != null) {
+            return stats.total(encoder, cells);
+        }
+        double area = 0;
+        for (String cell: cells) {
+            area += area(encoder.bounds(cell));
         }
-        table.close();
+        double[] unit = encoder.bounds(encoder.encode(0, 0, encoder.defaultLevel()));
+        return Math.round(area / area(unit));
+    }
 
-        int exclusionCount = 0;
-        for (Iterator<QueryMatch> iter = ret.iterator(); iter.hasNext();) {
-            QueryMatch candidate = iter.next();
-            Coordinate coordinate = new Coordinate(candidate.lon, candidate.lat);
-            Geometry point = factory.createPoint(coordinate);
-            if (!query.contains(point)) {
-                iter.remove();
-                exclusionCount++;
+    static double area(double[] bounds) {
+        return (bounds[2] - bounds[0]) * (bounds[3] - bounds[1]);
+    }
+
+    /**
+     * Covers the query with the cells of one level that meet it and costs
+     * scanning them, or returns null when that takes more than MAX_COVER_CELLS.
+     * Rows in cells inside the query need no check.
+     */
+    WithinPlan coverPlan(Geometry query, PreparedGeometry prepared, int level, long matches)
+            throws IOException {
+        Envelope envelope = query.getEnvelopeInternal();
+        List<String> cells = encoder.cells(level, envelope.getMinX(), envelope.getMinY(),
+                envelope.getMaxX(), envelope.getMaxY(), MAX_COVER_CELLS);
+        if (cells == null) {
+            return null;
+        }
+        Set<String> interior = new HashSet<>();
+        List<String> boundary = new ArrayList<>();
+        for (String cell: cells) {
+            double[] bounds = encoder.bounds(cell);
+            Geometry rect = factory.toGeometry(new Envelope(bounds[0], bounds[2], bounds[1], bounds[3]));
+            if (prepared.contains(rect)) {
+                interior.add(cell);
+            } else if (prepared.intersects(rect)) {
+                boundary.add(cell);
             }
         }
-        System.out.println("Geometry predicate filtered " + exclusionCount + " points.");
+        List<String> covered = new ArrayList<>(interior);
+        covered.addAll(boundary);
+        if (covered.isEmpty()) {
+            return null;
+        }
+        long boundaryRows = estimate(boundary);
+        long rows = boundaryRows + estimate(interior);
+        return WithinPlan.cover(query, resolution, level, encoder.ranges(covered), interior,
+                rows, boundaryRows, matches);
+    }
+
+    /**
+     * Plans the query under every strategy, cheapest first. The bounding
+     * cells are scanned whole by the local and remote strategies; the cover
+     * strategy tries the next few finer levels.
+     */
+    public List<WithinPlan> plans(Geometry query) throws IOException {
+        return plans(query, true);
+    }
+
+    List<WithinPlan> plans(Geometry query, boolean withCover) throws IOException {
+        long start = System.nanoTime();
+        String[] prefixes = minimumBoundingPrefixes(query);
+        List<String> cells = Arrays.asList(prefixes);
+        List<KeyRange> ranges = encoder.ranges(cells);
+        int level = prefixes[0].length();
+        double area = 0;
+        for (String cell: cells) {
+            area += area(encoder.bounds(cell));
+        }
+        double selectivity = Math.min(1, query.getArea() / area);
+        long rows = estimate(cells);
+        long matches = Math.round(rows * selectivity);
+
+        List<WithinPlan> ret = new ArrayList<>();
+        ret.add(WithinPlan.local(query, resolution, level, ranges, rows, matches));
+        ret.add(WithinPlan.remote(query, resolution, level, ranges, rows, matches));
+        PreparedGeometry prepared = withCover ? PreparedGeometryFactory.prepare(query) : null;
+        WithinPlan cover = null;
+        for (int finer = level + 1; withCover && finer <= Math.min(level + MAX_COVER_LEVELS, encoder.maxLevel()); finer++) {
+            WithinPlan candidate = coverPlan(query, prepared, finer, matches);
+            if (candidate != null && (cover == null || candidate.cost < cover.cost)) {
+                cover = candidate;
+            }
+        }
+        if (cover != null) {
+            ret.add(cover);
+        }
+        ret.sort(Comparator.comparingDouble(plan -> plan.cost));
+        long elapsed = System.nanoTime() - start;
+        for (WithinPlan plan: ret) {
+            plan.planNanos = elapsed;
+        }
         return ret;
     }
 
-    public Set<QueryMatch> queryWithFilter(Geometry query) throws IOException {
-        GeoHash[] prefixes = minimumBoundingPrefixes(query);
-        Filter withinFilter = new WithinFilter(query);
-        Set<QueryMatch> ret = new HashSet<>();
-        Table table = connection.getTable(TableName.valueOf(TABLE));
+    public WithinPlan plan(Geometry query) throws IOException {
+        return plans(query).get(0);
+    }
 
-        for (GeoHash prefix: prefixes) {
-            byte[] p = prefix.toBase32().getBytes();
-            FilterList filters = new FilterList(new PrefixFilter(p), withinFilter);
-            Scan scan = new Scan().withStartRow(p).setFilter(filters);
-            scan.addFamily(FAMILY);
-            scan.readVersions(1);
-            scan.setCaching(50);
+    WithinPlan plan(Geometry query, WithinPlan.Strategy strategy) throws IOException {
+        for (WithinPlan plan: plans(query, strategy == WithinPlan.Strategy.COVER)) {
+            if (plan.strategy == strategy) {
+                return plan;
+            }
+        }
+        throw new IllegalArgumentException("No " + strategy + " plan for the query");
+    }
 
-            ResultScanner scanner = table.getScanner(scan);
-            for (Result result: scanner) {
-                String hash = new String(result.getRow());
-                String id = new String(result.getValue(FAMILY, ID));
-                String lon = new String(result.getValue(FAMILY, X_COL));
-                String lat = new String(result.getValue(FAMILY, Y_COL));
-                ret.add(new QueryMatch(id, hash, Double.parseDouble(lon), Double.parseDouble(lat)));
+    /**
+     * Runs the plan over the time window [from, to), recording the rows
+     * scanned and matched and the time spent scanning and checking.
+     */
+    public Set<QueryMatch> execute(WithinPlan plan, long from, long to) throws IOException {
+        Filter filter = plan.strategy == WithinPlan.Strategy.REMOTE ? new WithinFilter(plan.query, resolution) : null;
+        Set<QueryMatch> ret = new HashSet<>();
+        long before = scanned;
+        long start = System.nanoTime();
+        try (Table table = connection.getTable(this.table)) {
+            for (KeyRange range: plan.ranges) {
+                scan(table, range, filter, from, to, ret);
             }
         }
-        table.close();
+        plan.scanned = scanned - before;
+        plan.scanNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        if (plan.strategy != WithinPlan.Strategy.REMOTE) {
+            RasterGrid grid = resolution > 0 ? new RasterGrid(plan.query, resolution) : null;
+            PreparedGeometry prepared = grid == null && plan.strategy == WithinPlan.Strategy.COVER
+                    ? PreparedGeometryFactory.prepare(plan.query) : null;
+            int exclusionCount = 0;
+            for (Iterator<QueryMatch> iter = ret.iterator(); iter.hasNext();) {
+                QueryMatch candidate = iter.next();
+                if (plan.interior.contains(candidate.hash.substring(0, plan.level))) {
+                    continue;
+                }
+                boolean inside;
+                if (grid != null) {
+                    inside = grid.contains(candidate.lon, candidate.lat);
+                } else {
+                    Geometry point = factory.createPoint(new Coordinate(candidate.lon, candidate.lat));
+                    inside = prepared != null ? prepared.contains(point) : plan.query.contains(point);
+                }
+                if (!inside) {
+                    iter.remove();
+                    exclusionCount++;
+                }
+            }
+            System.out.println("Geometry predicate filtered " + exclusionCount + " points.");
+        }
+        plan.checkNanos = System.nanoTime() - start;
+        plan.matched = ret.size();
         return ret;
     }
 
+    public Set<QueryMatch> query(Geometry query) throws IOException {
+        return query(query, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Returns the points within the query observed in the time window
+     * [from, to). On a time-bucketed table only the buckets overlapping the
+     * window are scanned.
+     */
+    public Set<QueryMatch> query(Geometry query, long from, long to) throws IOException {
+        return execute(plan(query, WithinPlan.Strategy.LOCAL), from, to);
+    }
+
+    public Set<QueryMatch> queryWithFilter(Geometry query) throws IOException {
+        return queryWithFilter(query, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    public Set<QueryMatch> queryWithFilter(Geometry query, long from, long to) throws IOException {
+        return execute(plan(query, WithinPlan.Strategy.REMOTE), from, to);
+    }
+
+    /**
+     * Runs the query with whichever strategy the planner estimates cheapest.
+     */
+    public Set<QueryMatch> queryAuto(Geometry query, long from, long to) throws IOException {
+        return execute(plan(query), from, to);
+    }
+
+    /**
+     * A page of matches and the cursor to pass for the next page, null after
+     * the last.
+     */
+    public static final class Page {
+        public final List<QueryMatch> matches;
+        public final String cursor;
+
+        Page(List<QueryMatch> matches, String cursor) {
+            this.matches = matches;
+            this.cursor = cursor;
+        }
+    }
+
+    /**
+     * Identifies the query a cursor was issued for, so it cannot resume a
+     * different one.
+     */
+    int fingerprint(Geometry query, long from, long to) {
+        return Objects.hash(query.toText(), table.getNameAsString(), encoder.name(), bucketMillis, from, to);
+    }
+
+    static String cursor(int fingerprint, int range, byte[] row) {
+        ByteBuffer buf = ByteBuffer.allocate(1 + 4 + 4 + row.length);
+        buf.put(CURSOR_VERSION).putInt(fingerprint).putInt(range).put(row);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(buf.array());
+    }
+
+    public Page page(Geometry query, String cursor, int size) throws IOException {
+        return page(query, cursor, size, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Returns up to size points within the query observed in [from, to),
+     * starting after the position the cursor records, or at the beginning for
+     * a null cursor. Points are checked by WithinFilter on the region servers
+     * and the scan covers the query's bounding cells, which depend only on the
+     * query, so every page of a query walks the same key ranges. Scanners and
+     * the table are closed before the page is returned.
+     */
+    public Page page(Geometry query, String cursor, int size, long from, long to) throws IOException {
+        if (size < 1) {
+            throw new IllegalArgumentException("Page size must be at least 1, got " + size);
+        }
+        int fingerprint = fingerprint(query, from, to);
+        int range = 0;
+        byte[] last = null;
+        if (cursor != null) {
+            ByteBuffer buf;
+            try {
+                buf = ByteBuffer.wrap(Base64.getUrlDecoder().decode(cursor));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Malformed cursor: " + cursor, e);
+            }
+            if (buf.remaining() < 9 || buf.get() != CURSOR_VERSION || buf.getInt() != fingerprint) {
+                throw new IllegalArgumentException("Cursor was not issued for this query: " + cursor);
+            }
+            range = buf.getInt();
+            last = new byte[buf.remaining()];
+            buf.get(last);
+        }
+
+        List<byte[][]> keys = new ArrayList<>();
+        for (KeyRange r: encoder.ranges(Arrays.asList(minimumBoundingPrefixes(query)))) {
+            keys.addAll(TimeBuckets.ranges(r, from, to, bucketMillis));
+        }
+        Filter filter = new WithinFilter(query, resolution);
+        List<QueryMatch> ret = new ArrayList<>(size);
+        try (Table table = connection.getTable(this.table)) {
+            for (; range < keys.size(); range++, last = null) {
+                // rows outside the time window are dropped here, after the
+                // scan limit counted them, so a range may take several scans.
+                int limit;
+                int read;
+                do {
+                    limit = size - ret.size();
+                    Scan scan = new Scan().withStopRow(keys.get(range)[1]);
+                    if (last == null) {
+                        scan.withStartRow(keys.get(range)[0]);
+                    } else {
+                        scan.withStartRow(last, false);
+                    }
+                    scan.setFilter(filter);
+                    scan.addFamily(FAMILY);
+                    scan.readVersions(1);
+                    scan.setLimit(limit);
+                    scan.setCaching(Math.min(limit, DensityStats.MAX_CACHING));
+                    ranges++;
+                    read = 0;
+                    try (ResultScanner scanner = table.getScanner(scan)) {
+                        for (Result result: scanner) {
+                            scanned++;
+                            read++;
+                            last = result.getRow();
+                            if (!TimeBuckets.inWindow(result, FAMILY, from, to)) {
+                                continue;
+                            }
+                            String hash = TimeBuckets.hash(result.getRow(), bucketMillis);
+                            String id = new String(result.getValue(FAMILY, ID));
+                            String lon = new String(result.getValue(FAMILY, X_COL));
+                            String lat = new String(result.getValue(FAMILY, Y_COL));
+                            ret.add(new QueryMatch(id, hash, Double.parseDouble(lon), Double.parseDouble(lat)));
+                        }
+                    }
+                    if (ret.size() == size) {
+                        // the range may hold more; resume after the last row read.
+                        return new Page(ret, cursor(fingerprint, range, last));
+                    }
+                } while (read == limit);
+            }
+        }
+        return new Page(ret, null);
+    }
+
     public static void main(String[] args) throws IOException, ParseException {
-        if (args.length != 2 || (!"local".equals(args[0]) && !"remote".equals(args[0]))) {
+        KeyEncoder encoder = new GeoHashEncoder();
+        if (args.length > 1 && "-encoder".equals(args[0])) {
+            encoder = KeyEncoder.forName(args[1]);
+            args = Arrays.copyOfRange(args, 2, args.length);
+        }
+        int resolution = 0;
+        if (args.length > 1 && "-raster".equals(args[0])) {
+            resolution = Integer.parseInt(args[1]);
+            args = Arrays.copyOfRange(args, 2, args.length);
+        }
+        int pageSize = 1000;
+        String cursor = null;
+        if (args.length > 1 && "-page".equals(args[0])) {
+            pageSize = Integer.parseInt(args[1]);
+            args = Arrays.copyOfRange(args, 2, args.length);
+        }
+        if (args.length > 1 && "-cursor".equals(args[0])) {
+            cursor = args[1];
+            args = Arrays.copyOfRange(args, 2, args.length);
+        }
+        List<String> modes = Arrays.asList("local", "remote", "auto", "explain", "page");
+        if ((args.length != 2 && args.length != 6) || !modes.contains(args[0])) {
             System.out.println(usage);
             System.exit(0);
         }
@@ -158,17 +489,43 @@ public class WithinQuery {
         Geometry query = reader.read(args[1]);
 
         Connection connection = ConnectionFactory.createConnection();
-        WithinQuery q = new WithinQuery(connection);
+        WithinQuery q;
+        long from = Long.MIN_VALUE;
+        long to = Long.MAX_VALUE;
+        if (args.length == 6) {
+            q = new WithinQuery(connection, TableName.valueOf(args[2]), encoder,
+                    Long.parseLong(args[5]) * TimeBuckets.HOUR_MILLIS, null, resolution);
+            from = Long.parseLong(args[3]);
+            to = Long.parseLong(args[4]);
+        } else {
+            TableName table = TableName.valueOf(TABLE);
+            q = new WithinQuery(connection, table, encoder, 0, DensityStats.forTable(connection, table), resolution);
+        }
         Set<QueryMatch> results;
         if ("local".equals(args[0])) {
-            results = q.query(query);
+            results = q.query(query, from, to);
+        } else if ("remote".equals(args[0])) {
+            results = q.queryWithFilter(query, from, to);
+        } else if ("page".equals(args[0])) {
+            Page page = q.page(query, cursor, pageSize, from, to);
+            results = new LinkedHashSet<>(page.matches);
+            System.out.println(page.cursor == null ? "Last page." : "Next cursor: " + page.cursor);
+        } else if ("auto".equals(args[0])) {
+            results = q.queryAuto(query, from, to);
         } else {
-            results = q.queryWithFilter(query);
+            List<WithinPlan> plans = q.plans(query);
+            results = q.execute(plans.get(0), from, to);
+            for (WithinPlan plan: plans) {
+                System.out.println((plan == plans.get(0) ? "* " : "  ") + plan);
+            }
+            System.out.println(plans.get(0).explain());
         }
 
-        System.out.println("Query matched " + results.size() + " points.");
-        for (QueryMatch result: results) {
-            System.out.println(result);
+        System.out.println("Query matched " + results.size() + " points, scanned " + q.scanned + " rows.");
+        if (!"explain".equals(args[0])) {
+            for (QueryMatch result: results) {
+                System.out.println(result);
+            }
         }
 
         connection.close();